@@ -16,6 +16,7 @@ export class ApiService {
     upload: getPUrl('files/upload'),
     uploads: getPUrl('files/uploads'),
     preview: getPUrl('files/preview'),
+    initChunk: getPUrl('files/chunk/init'),
     uploadChunk: getPUrl('files/chunk'),
     mergeChunks: getPUrl('files/merge'),
     checkChunk: getPUrl('files/chunk/check'),
@@ -78,6 +79,12 @@ export class ApiService {
   }
 
   // Chunk upload methods
+  initChunkUpload(param: any): Observable<any> {
+    return this.http.post(this.url.initChunk, param).pipe(
+      catchError(this.errorHandler)
+    );
+  }
+
   uploadChunk(param: any): Observable<any> {
     return this.http.post(this.url.uploadChunk, param, {
       responseType: 'text'
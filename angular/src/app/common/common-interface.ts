@@ -12,7 +12,16 @@ export interface uploadFile {
   creationDate: string,
 }
 
+export interface ChunkInit {
+  filename: string,
+  totalSize: number,
+  chunkSize: number,
+  totalChunks: number,
+  type: string
+}
+
 export interface ChunkFile {
+  uploadId: string,
   filename: string,
   totalChunks: number,
   type: string
@@ -20,7 +29,17 @@ export interface ChunkFile {
 
 export interface Chunk {
   file: Blob,
+  uploadId: string,
   filename: string,
   chunkIndex: number,
-  totalChunks: number
+  totalChunks: number,
+  totalSize: number,
+  chunkSize: number
+}
+
+export interface ChunkStatus {
+  filename: string,
+  totalChunks: number,
+  receivedChunks: number,
+  missingChunks: number[]
 }
@@ -2,7 +2,7 @@ import {HttpClient} from '@angular/common/http';
 import {Injectable} from '@angular/core';
 import {getPUrl} from 'layout-navbar';
 import {catchError, throwError} from 'rxjs';
-import {Chunk, ChunkFile} from './common-interface';
+import {Chunk, ChunkFile, ChunkInit, ChunkStatus} from './common-interface';
 
 @Injectable({providedIn: 'root'})
 export class FileUploadService {
@@ -10,17 +10,30 @@ export class FileUploadService {
   }
 
   private url = {
-    chunk: getPUrl('upload/chunk'),
-    merge: getPUrl('upload/merge'),
-    checkChunk: getPUrl('upload/check-chunk'),
+    init: getPUrl('files/chunk/init'),
+    chunk: getPUrl('files/chunk'),
+    merge: getPUrl('files/merge'),
+    checkChunk: getPUrl('files/chunk/check'),
+    chunkStatus: getPUrl('files/chunk/status'),
+  }
+
+  // Server pre-allocate file đích và trả về uploadId cho session
+  initChunkUpload(init: ChunkInit): Promise<string> {
+    return this.http.post<{ uploadId: string }>(this.url.init, init)
+      .toPromise()
+      .then((res: any) => res.uploadId);
   }
 
   uploadChunk(chunk: Chunk) {
     const form = new FormData();
     form.append('file', chunk.file);
+    form.append('uploadId', chunk.uploadId);
     form.append('filename', chunk.filename);
     form.append('chunkIndex', chunk.chunkIndex.toString());
     form.append('totalChunks', chunk.totalChunks.toString());
+    // Gửi kèm layout để server ghi chunk thẳng vào đúng offset
+    form.append('totalSize', chunk.totalSize.toString());
+    form.append('chunkSize', chunk.chunkSize.toString());
 
     return this.http.post(this.url.chunk, form, {responseType: 'text'}).pipe(
       catchError(this.errorHandler)
@@ -33,12 +46,19 @@ export class FileUploadService {
     );
   }
 
-  checkChunkExists(filename: string, chunkIndex: number): Promise<boolean> {
-    return this.http.get<{ exists: boolean }>(this.url.checkChunk, {params: {filename, chunkIndex}})
+  checkChunkExists(uploadId: string, filename: string, chunkIndex: number): Promise<boolean> {
+    return this.http.get<{ exists: boolean }>(this.url.checkChunk, {params: {uploadId, filename, chunkIndex}})
       .toPromise()
       .then((res: any) => res.exists);
   }
 
+  // Lấy toàn bộ chunk còn thiếu trong một request
+  getChunkStatus(uploadId: string, filename: string, totalChunks: number): Promise<ChunkStatus> {
+    return this.http.get<ChunkStatus>(this.url.chunkStatus, {params: {uploadId, filename, totalChunks}})
+      .toPromise()
+      .then((res: any) => res as ChunkStatus);
+  }
+
   errorHandler(error: any) {
     let errorMessage = '';
     if (error.error instanceof ErrorEvent) {
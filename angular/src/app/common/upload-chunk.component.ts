@@ -35,6 +35,7 @@ import {Chunk, ChunkFile} from './common-interface';
 export class UploadComponent {
   uploadQueue: UploadFileStatus[] = [];
   CHUNK_SIZE = 2 * 1024 * 1024; // 1MB
+  PARALLEL_UPLOADS = 4;
   uploading = false;
   progress = 0;
 
@@ -57,22 +58,39 @@ export class UploadComponent {
       upload.status = 'uploading';
       try {
         const totalChunks = Math.ceil(upload.file.size / this.CHUNK_SIZE);
+        const uploadId = await this.uploadService.initChunkUpload({
+          filename: upload.filename,
+          totalSize: upload.file.size,
+          chunkSize: this.CHUNK_SIZE,
+          totalChunks: totalChunks,
+          type: upload.file.type
+        });
 
-        for (let i = 0; i < totalChunks; i++) {
-          const chunkExists = await this.uploadService.checkChunkExists(upload.filename, i);
-          if (chunkExists) {
-            upload.progress = Math.round(((i + 1) / totalChunks) * 100);
-            continue;
-          }
+        // Hỏi server một lần các chunk còn thiếu thay vì check từng chunk
+        const status = await this.uploadService.getChunkStatus(uploadId, upload.filename, totalChunks);
+        const pending = [...status.missingChunks];
+        let done = totalChunks - pending.length;
+        upload.progress = Math.round((done / totalChunks) * 100);
+
+        // Upload song song, giới hạn số request cùng lúc
+        const worker = async () => {
+          let i: number | undefined;
+          while ((i = pending.shift()) !== undefined) {
+            const start = i * this.CHUNK_SIZE;
+            const end = Math.min(upload.file.size, start + this.CHUNK_SIZE);
+            const chunk = upload.file.slice(start, end);
 
-          const start = i * this.CHUNK_SIZE;
-          const end = Math.min(upload.file.size, start + this.CHUNK_SIZE);
-          const chunk = upload.file.slice(start, end);
+            await this.uploadService.uploadChunk({
+              file: chunk, uploadId, filename: upload.filename, chunkIndex: i, totalChunks: totalChunks,
+              totalSize: upload.file.size, chunkSize: this.CHUNK_SIZE
+            } as Chunk).toPromise();
+            done++;
+            upload.progress = Math.round((done / totalChunks) * 100);
+          }
+        };
+        await Promise.all(Array.from({length: Math.min(this.PARALLEL_UPLOADS, pending.length)}, () => worker()));
 
-          await this.uploadService.uploadChunk({file: chunk, filename: upload.filename,chunkIndex: i,totalChunks: totalChunks} as Chunk).toPromise();
-          upload.progress = Math.round(((i + 1) / totalChunks) * 100);
-        }
-        await this.uploadService.mergeChunks({filename: upload.filename, totalChunks: totalChunks, type: upload.file.type} as ChunkFile).toPromise();
+        await this.uploadService.mergeChunks({uploadId, filename: upload.filename, totalChunks: totalChunks, type: upload.file.type} as ChunkFile).toPromise();
         upload.status = 'completed';
       } catch (error) {
         upload.status = 'error';
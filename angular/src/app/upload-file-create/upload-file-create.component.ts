@@ -50,6 +50,7 @@ export class UploadFileCreateComponent {
   maxFileSize = 500 * 1024 * 1024; // 500MB max
   chunkThreshold = 10 * 1024 * 1024; // 10MB - files larger than this will be chunked
   chunkSize = 2 * 1024 * 1024; // 2MB per chunk
+  parallelUploads = 4; // Số chunk upload cùng lúc cho mỗi file
   // Supported file types with more comprehensive list
   supportedTypes = [
     // Images
@@ -258,31 +259,39 @@ export class UploadFileCreateComponent {
     fileInfo.uploadProgress = 0;
 
     try {
-      // Upload chunks sequentially để track progress đúng
+      // Mỗi lần upload có session riêng nên upload trùng tên file không đè lên nhau
+      const uploadId = await this.initChunkUpload(file, totalChunks);
+
+      // Upload song song - server ghi mỗi chunk vào đúng offset nên thứ tự không quan trọng
+      const pending = Array.from({length: totalChunks}, (_, i) => i);
       let uploadedChunks = 0;
 
-      for (let i = 0; i < totalChunks; i++) {
-        const start = i * this.chunkSize;
-        const end = Math.min(start + this.chunkSize, file.size);
-        const chunk = file.slice(start, end);
+      const worker = async () => {
+        let i: number | undefined;
+        while ((i = pending.shift()) !== undefined) {
+          const start = i * this.chunkSize;
+          const end = Math.min(start + this.chunkSize, file.size);
+          const chunk = file.slice(start, end);
 
-        await this.uploadChunk(chunk, file.name, i, totalChunks, file.size);
+          await this.uploadChunk(chunk, uploadId, file.name, i, totalChunks, file.size);
 
-        uploadedChunks++;
+          uploadedChunks++;
 
-        // CẬP NHẬT PROGRESS cho từng chunk
-        fileInfo.uploadProgress = Math.floor((uploadedChunks / totalChunks) * 90); // 90% cho upload chunks
+          // CẬP NHẬT PROGRESS theo số chunk đã xong
+          fileInfo.uploadProgress = Math.floor((uploadedChunks / totalChunks) * 90); // 90% cho upload chunks
 
-        // CẬP NHẬT OVERALL PROGRESS
-        this.updateOverallProgress();
-      }
+          // CẬP NHẬT OVERALL PROGRESS
+          this.updateOverallProgress();
+        }
+      };
+      await Promise.all(Array.from({length: Math.min(this.parallelUploads, totalChunks)}, () => worker()));
 
       // Update progress cho merge step
       fileInfo.uploadProgress = 90;
       this.updateOverallProgress();
 
       // Merge chunks
-      await this.mergeChunks(file.name, totalChunks, file.type, file.size);
+      await this.mergeChunks(uploadId, file.name, totalChunks, file.type, file.size);
 
       fileInfo.status = 'success';
       fileInfo.uploadProgress = 100;
@@ -324,13 +333,39 @@ export class UploadFileCreateComponent {
     this.overallProgress = Math.floor(totalProgress / totalFiles);
   }
 
-  private uploadChunk(chunk: Blob, filename: string, chunkIndex: number, totalChunks: number, fileSize: number): Promise<any> {
+  private initChunkUpload(file: File, totalChunks: number): Promise<string> {
+    const initRequest = {
+      filename: file.name,
+      totalSize: file.size,
+      chunkSize: this.chunkSize,
+      totalChunks: totalChunks,
+      type: file.type
+    };
+
+    return new Promise((resolve, reject) => {
+      this.apiService.initChunkUpload(initRequest).subscribe({
+        next: (result) => {
+          if (result.error) {
+            reject(new Error(result.error));
+          } else {
+            resolve(result.uploadId);
+          }
+        },
+        error: (error) => reject(error)
+      });
+    });
+  }
+
+  private uploadChunk(chunk: Blob, uploadId: string, filename: string, chunkIndex: number, totalChunks: number, fileSize: number): Promise<any> {
     const formData = new FormData();
     formData.append('file', chunk);
+    formData.append('uploadId', uploadId);
     formData.append('filename', filename);
     formData.append('chunkIndex', chunkIndex.toString());
     formData.append('totalChunks', totalChunks.toString());
     formData.append('totalSize', fileSize.toString());
+    // Gửi kèm chunkSize để server ghi chunk thẳng vào file đích (không cần merge)
+    formData.append('chunkSize', this.chunkSize.toString());
 
     return new Promise((resolve, reject) => {
       this.apiService.uploadChunk(formData).subscribe({
@@ -346,8 +381,9 @@ export class UploadFileCreateComponent {
     });
   }
 
-  private mergeChunks(filename: string, totalChunks: number, fileType: string, totalSize: number): Promise<any> {
+  private mergeChunks(uploadId: string, filename: string, totalChunks: number, fileType: string, totalSize: number): Promise<any> {
     const mergeRequest = {
+      uploadId: uploadId,
       filename: filename,
       totalChunks: totalChunks,
       type: fileType,
@@ -0,0 +1,158 @@
+package com.upload_file.common;
+
+import com.upload_file.exception.RangeNotSatisfiableException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Parser cho header Range theo RFC 7233: first-last, first-, -suffix và nhiều range cách nhau dấu phẩy.
+ * Duyệt thẳng trên chuỗi (không split/regex) vì được gọi cho mọi request seek của video/PDF.
+ */
+public final class ByteRanges {
+
+  // Quá số range này (sau khi gộp) thì trả một range bao trùm - tránh response multipart khổng lồ
+  private static final int MAX_RANGES = 32;
+
+  private static final long EMPTY = -1;
+  private static final long INVALID = -2;
+
+  private ByteRanges() {
+  }
+
+  public record Range(long start, long end) {
+    public long length() {
+      return end - start + 1;
+    }
+  }
+
+  /**
+   * Trả list rỗng nếu không có header hoặc header sai cú pháp (phục vụ cả file, như RFC cho phép).
+   * Ném RangeNotSatisfiableException nếu header hợp lệ nhưng không range nào nằm trong file.
+   * Các range chồng/liền nhau được gộp lại và sắp theo vị trí.
+   */
+  public static List<Range> parse(String header, long size) {
+    if (header == null) {
+      return List.of();
+    }
+
+    int length = header.length();
+    int i = skipWhitespace(header, 0, length);
+    if (!header.regionMatches(true, i, "bytes", 0, 5)) {
+      return List.of();
+    }
+    i = skipWhitespace(header, i + 5, length);
+    if (i >= length || header.charAt(i) != '=') {
+      return List.of();
+    }
+    i++;
+
+    List<Range> ranges = new ArrayList<>(2);
+    boolean hasSpec = false;
+
+    while (i < length) {
+      int comma = header.indexOf(',', i);
+      int specEnd = comma < 0 ? length : comma;
+      int from = skipWhitespace(header, i, specEnd);
+      int to = trimEnd(header, from, specEnd);
+      i = specEnd + 1;
+
+      if (from == to) {
+        continue; // phần tử rỗng trong list ("0-1, ,5-6") được bỏ qua
+      }
+
+      int dash = header.indexOf('-', from);
+      if (dash < 0 || dash >= to) {
+        return List.of();
+      }
+
+      long first = parseNumber(header, from, trimEnd(header, from, dash));
+      long last = parseNumber(header, skipWhitespace(header, dash + 1, to), to);
+      if (first == INVALID || last == INVALID || (first == EMPTY && last == EMPTY)) {
+        return List.of();
+      }
+      hasSpec = true;
+
+      if (first == EMPTY) {
+        // -suffix: suffix byte cuối cùng của file
+        if (last > 0 && size > 0) {
+          ranges.add(new Range(Math.max(0, size - last), size - 1));
+        }
+      } else {
+        if (last != EMPTY && last < first) {
+          return List.of();
+        }
+        if (first < size) {
+          ranges.add(new Range(first, last == EMPTY ? size - 1 : Math.min(last, size - 1)));
+        }
+      }
+    }
+
+    if (!hasSpec) {
+      return List.of();
+    }
+    if (ranges.isEmpty()) {
+      throw new RangeNotSatisfiableException(header, size);
+    }
+    return coalesce(ranges);
+  }
+
+  private static List<Range> coalesce(List<Range> ranges) {
+    if (ranges.size() == 1) {
+      return ranges;
+    }
+
+    ranges.sort(Comparator.comparingLong(Range::start));
+    List<Range> merged = new ArrayList<>(ranges.size());
+    Range current = ranges.get(0);
+    for (int i = 1; i < ranges.size(); i++) {
+      Range next = ranges.get(i);
+      if (next.start() <= current.end() + 1) {
+        current = new Range(current.start(), Math.max(current.end(), next.end()));
+      } else {
+        merged.add(current);
+        current = next;
+      }
+    }
+    merged.add(current);
+
+    if (merged.size() > MAX_RANGES) {
+      return List.of(new Range(merged.get(0).start(), current.end()));
+    }
+    return merged;
+  }
+
+  private static long parseNumber(String s, int from, int to) {
+    if (from >= to) {
+      return EMPTY;
+    }
+    long value = 0;
+    for (int i = from; i < to; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return INVALID;
+      }
+      int digit = c - '0';
+      if (value > (Long.MAX_VALUE - digit) / 10) {
+        return INVALID;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  private static int skipWhitespace(String s, int from, int to) {
+    while (from < to && (s.charAt(from) == ' ' || s.charAt(from) == '\t')) {
+      from++;
+    }
+    return from;
+  }
+
+  private static int trimEnd(String s, int from, int to) {
+    while (to > from && (s.charAt(to - 1) == ' ' || s.charAt(to - 1) == '\t')) {
+      to--;
+    }
+    return to;
+  }
+}
@@ -13,6 +13,19 @@ public class Constants {
     ONEDRIVE     // fileSize > 100MB or fallback
   }
 
+  /**
+   * Tầng lưu trữ cho file có kích thước fileSize
+   */
+  public static StorageLevel storageLevelOf(long fileSize) {
+    if (fileSize <= MAX_DB_SIZE) {
+      return StorageLevel.DATABASE;
+    } else if (fileSize <= MAX_SYSTEM_SIZE) {
+      return StorageLevel.SYSTEM;
+    } else {
+      return StorageLevel.ONEDRIVE;
+    }
+  }
+
   // File system paths
   public static final Path uploadDir = Paths.get("D:/videos");
   public static final Path tempVideoDir = Paths.get(System.getProperty("java.io.tmpdir"), "video-chunks");
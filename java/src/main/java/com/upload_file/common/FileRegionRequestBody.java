@@ -0,0 +1,53 @@
+package com.upload_file.common;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * RequestBody đọc thẳng một vùng [position, position + length) của file qua FileChannel.transferTo,
+ * không copy cả slice vào heap. Có thể gửi lại nhiều lần (dùng khi retry).
+ */
+public class FileRegionRequestBody extends RequestBody {
+
+  private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+  private final FileChannel channel;
+  private final long position;
+  private final long length;
+
+  public FileRegionRequestBody(FileChannel channel, long position, long length) {
+    this.channel = channel;
+    this.position = position;
+    this.length = length;
+  }
+
+  @Nullable
+  @Override
+  public MediaType contentType() {
+    return OCTET_STREAM;
+  }
+
+  @Override
+  public long contentLength() {
+    return length;
+  }
+
+  @Override
+  public void writeTo(@NotNull BufferedSink sink) throws IOException {
+    long written = 0;
+    while (written < length) {
+      // BufferedSink là WritableByteChannel - transferTo dùng positional read nên không đổi position của channel
+      long transferred = channel.transferTo(position + written, length - written, sink);
+      if (transferred <= 0) {
+        throw new IOException("File ended at " + (position + written) + " while sending region of " + length + " bytes");
+      }
+      written += transferred;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package com.upload_file.common;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ghi metrics cho từng call của OkHttp: DNS, connect, time-to-first-byte, tổng thời gian và số byte gửi/nhận.
+ * Mỗi call có một instance riêng (xem {@link Factory}) nên không cần đồng bộ.
+ */
+public class HttpMetricsEventListener extends EventListener {
+
+  private final MeterRegistry meterRegistry;
+  private final String host;
+
+  private long callStartNanos;
+  private long dnsStartNanos;
+  private long connectStartNanos;
+
+  public HttpMetricsEventListener(MeterRegistry meterRegistry, String host) {
+    this.meterRegistry = meterRegistry;
+    this.host = host;
+  }
+
+  @Override
+  public void callStart(@NotNull Call call) {
+    callStartNanos = System.nanoTime();
+  }
+
+  @Override
+  public void dnsStart(@NotNull Call call, @NotNull String domainName) {
+    dnsStartNanos = System.nanoTime();
+  }
+
+  @Override
+  public void dnsEnd(@NotNull Call call, @NotNull String domainName, @NotNull List<InetAddress> inetAddressList) {
+    record("onedrive.http.dns", "DNS lookup time", dnsStartNanos);
+  }
+
+  @Override
+  public void connectStart(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy) {
+    connectStartNanos = System.nanoTime();
+  }
+
+  @Override
+  public void connectEnd(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy,
+                         @Nullable Protocol protocol) {
+    record("onedrive.http.connect", "TCP + TLS connect time", connectStartNanos);
+  }
+
+  @Override
+  public void responseHeadersStart(@NotNull Call call) {
+    record("onedrive.http.ttfb", "Time from call start to first response byte", callStartNanos);
+  }
+
+  @Override
+  public void requestBodyEnd(@NotNull Call call, long byteCount) {
+    bytes("sent", byteCount);
+  }
+
+  @Override
+  public void responseBodyEnd(@NotNull Call call, long byteCount) {
+    bytes("received", byteCount);
+  }
+
+  @Override
+  public void callEnd(@NotNull Call call) {
+    recordCall("success");
+  }
+
+  @Override
+  public void callFailed(@NotNull Call call, @NotNull IOException ioe) {
+    recordCall("error");
+  }
+
+  private void record(String name, String description, long startNanos) {
+    Timer.builder(name)
+        .description(description)
+        .tag("host", host)
+        .register(meterRegistry)
+        .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private void recordCall(String outcome) {
+    Timer.builder("onedrive.http.call")
+        .description("Total OkHttp call time")
+        .tag("host", host)
+        .tag("outcome", outcome)
+        .register(meterRegistry)
+        .record(System.nanoTime() - callStartNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private void bytes(String direction, long byteCount) {
+    DistributionSummary.builder("onedrive.http.bytes")
+        .description("Bytes transferred per OkHttp call")
+        .baseUnit("bytes")
+        .tag("host", host)
+        .tag("direction", direction)
+        .register(meterRegistry)
+        .record(byteCount);
+  }
+
+  public static class Factory implements EventListener.Factory {
+
+    private final MeterRegistry meterRegistry;
+
+    public Factory(MeterRegistry meterRegistry) {
+      this.meterRegistry = meterRegistry;
+    }
+
+    @NotNull
+    @Override
+    public EventListener create(@NotNull Call call) {
+      return new HttpMetricsEventListener(meterRegistry, call.request().url().host());
+    }
+  }
+}
@@ -47,4 +47,20 @@ public class AsyncConfig {
     executor.initialize();
     return executor;
   }
-}
\ No newline at end of file
+
+  @Bean("segmentFetchExecutor")
+  public TaskExecutor segmentFetchExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+    // Tai segment OneDrive (ca read-ahead) - hang doi ngan, day thi bo qua read-ahead
+    executor.setCorePoolSize(4);
+    executor.setMaxPoolSize(16);
+    executor.setQueueCapacity(32);
+    executor.setThreadNamePrefix("SegmentFetch-");
+
+    executor.setWaitForTasksToCompleteOnShutdown(false);
+
+    executor.initialize();
+    return executor;
+  }
+}
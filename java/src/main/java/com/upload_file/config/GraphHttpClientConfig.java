@@ -0,0 +1,47 @@
+package com.upload_file.config;
+
+import com.upload_file.common.HttpMetricsEventListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OkHttpClient dùng chung cho mọi request tới Microsoft Graph / CDN của OneDrive.
+ * Các service cần interceptor riêng thì dùng newBuilder() để vẫn chia sẻ pool và dispatcher.
+ */
+@Configuration
+public class GraphHttpClientConfig {
+
+  @Bean("graphHttpClient")
+  public OkHttpClient graphHttpClient(OneDriveConfig oneDriveConfig, MeterRegistry meterRegistry) {
+    OneDriveConfig.Http http = oneDriveConfig.getHttp();
+
+    // Giới hạn của dispatcher áp dụng cho call bất đồng bộ (enqueue)
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(http.getMaxRequests());
+    dispatcher.setMaxRequestsPerHost(http.getMaxRequestsPerHost());
+
+    List<Protocol> protocols = http.isHttp2()
+        ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)
+        : List.of(Protocol.HTTP_1_1);
+
+    return new OkHttpClient.Builder()
+        .connectionPool(new ConnectionPool(http.getMaxIdleConnections(), http.getKeepAliveMinutes(), TimeUnit.MINUTES))
+        .dispatcher(dispatcher)
+        .protocols(protocols)
+        .connectTimeout(http.getConnectTimeout(), TimeUnit.MILLISECONDS)
+        // Đọc là chiều streaming (download/range), ghi là chiều upload slice
+        .readTimeout(oneDriveConfig.getStreaming().getTimeout(), TimeUnit.MILLISECONDS)
+        .writeTimeout(oneDriveConfig.getUpload().getTimeout(), TimeUnit.MILLISECONDS)
+        .retryOnConnectionFailure(true)
+        .eventListenerFactory(new HttpMetricsEventListener.Factory(meterRegistry))
+        .build();
+  }
+}
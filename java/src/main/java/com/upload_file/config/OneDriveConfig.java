@@ -19,6 +19,8 @@ public class OneDriveConfig {
   private String scope;
 
   private Upload upload = new Upload();
+  private Streaming streaming = new Streaming();
+  private Http http = new Http();
 
   @Setter
   @Getter
@@ -28,4 +30,24 @@ public class OneDriveConfig {
     private int timeout = 300000; // 5 minutes
 
   }
+
+  @Setter
+  @Getter
+  public static class Streaming {
+    private int timeout = 300000; // 5 minutes
+    private int chunkSize = 5242880; // 5MB
+    // downloadUrl của Graph sống khoảng 1 giờ - cache ngắn hơn để không dùng URL sắp hết hạn
+    private int downloadUrlTtlMinutes = 45;
+  }
+
+  @Setter
+  @Getter
+  public static class Http {
+    private int maxIdleConnections = 32;
+    private int keepAliveMinutes = 5;
+    private int maxRequests = 128;
+    private int maxRequestsPerHost = 32;
+    private int connectTimeout = 10000; // 10 seconds
+    private boolean http2 = true;
+  }
 }
\ No newline at end of file
@@ -2,16 +2,21 @@ package com.upload_file.controller;
 
 import com.upload_file.common.Constants;
 import com.upload_file.common.UserIml;
+import com.upload_file.dto.ChunkInitRequest;
+import com.upload_file.dto.FileCursor;
 import com.upload_file.dto.MergeRequest;
+import com.upload_file.dto.ResponseCursorPage;
 import com.upload_file.dto.ResponseFile;
 import com.upload_file.dto.ResponsePage;
 import com.upload_file.dto.ResponseResult;
+import com.upload_file.dto.UploadPrecheckRequest;
 import com.upload_file.entity.FileDB;
 import com.upload_file.service.*;
 import com.upload_file.service.abstract_file.AbstractValidFile;
 import io.micrometer.core.annotation.Timed;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
@@ -29,7 +34,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.Collections;
-import java.util.concurrent.CompletableFuture;
+import java.util.List;
 
 /**
  * Simplified FileController - chỉ xử lý HTTP requests và validation
@@ -129,6 +134,30 @@ public class FileController extends AbstractValidFile implements UserIml {
     }
   }
 
+  /**
+   * Instant upload - client gửi tên, size, SHA-256 trước khi upload/chunk.
+   * skipUpload = true nghĩa là file đã được tạo từ nội dung sẵn có, không cần gửi bytes.
+   */
+  @PostMapping("/upload/precheck")
+  @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+  @Timed(value = "file.upload_precheck", description = "Time taken for instant upload precheck")
+  public ResponseEntity<?> precheckUpload(@RequestBody @NotNull UploadPrecheckRequest request) {
+    String currentUser = getCurrentUsername();
+    logger.info("User '{}' prechecking upload: {} ({} bytes)", currentUser, request.filename, request.size);
+
+    try {
+      ResponseEntity<?> validationError = validatePrecheckRequest(request);
+      if (validationError != null) return validationError;
+
+      FileDB fileDB = fileUploadService.tryInstantUpload(request.filename, request.size, request.hash, request.type);
+      return createPrecheckResponse(fileDB, request);
+
+    } catch (Exception e) {
+      logger.error("Error prechecking upload {} by user '{}': {}", request.filename, currentUser, e.getMessage(), e);
+      return createErrorResponse("Precheck failed: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+  }
+
   // ============= FILE LISTING =============
 
   /**
@@ -168,6 +197,49 @@ public class FileController extends AbstractValidFile implements UserIml {
     }
   }
 
+  /**
+   * Danh sách file theo keyset (cursor) - thời gian trả về không phụ thuộc trang sâu bao nhiêu.
+   * Bỏ trống cursor để lấy trang đầu, truyền nextCursor của response trước để lấy trang tiếp theo.
+   * count=true mới đếm tổng số file (tốn thêm một query COUNT).
+   */
+  @GetMapping("/list/cursor")
+  @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+  @Timed(value = "file.list.cursor", description = "Time taken to list files by cursor")
+  public ResponseEntity<?> getListFilesByCursor(@RequestParam(defaultValue = "") String search,
+                                                @RequestParam(required = false) String cursor,
+                                                @RequestParam(defaultValue = "10") @Min(1) @Max(100) Integer size,
+                                                @RequestParam(defaultValue = "false") boolean count) {
+    String currentUser = getCurrentUsername();
+    logger.debug("Getting file list by cursor - search: '{}', cursor: {}, size: {}", search, cursor, size);
+
+    FileCursor position;
+    try {
+      position = FileCursor.decode(cursor);
+    } catch (IllegalArgumentException e) {
+      return createErrorResponse("Invalid cursor", HttpStatus.BAD_REQUEST);
+    }
+
+    try {
+      List<FileDB> files = fileStorageService.getFilesAfter(search, position, size, currentUser, isAdmin());
+      boolean hasNext = files.size() > size;
+      if (hasNext) {
+        files = files.subList(0, size);
+      }
+
+      String nextCursor = hasNext ? FileCursor.after(files.get(files.size() - 1)).encode() : null;
+      Long total = count ? fileStorageService.countFiles(search, currentUser, isAdmin()) : null;
+      List<ResponseFile> items = files.stream().map(this::getFileDB).toList();
+
+      logger.debug("Retrieved {} files by cursor, hasNext: {}", items.size(), hasNext);
+      return ResponseEntity.ok(new ResponseCursorPage(items, nextCursor, hasNext, total));
+
+    } catch (Exception e) {
+      logger.error("Error retrieving file list by cursor: {}", e.getMessage(), e);
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+          .body(new ResponseCursorPage(Collections.emptyList(), null, false, null));
+    }
+  }
+
   // ============= PREVIEW/DOWNLOAD ENDPOINTS =============
 
   /**
@@ -260,6 +332,33 @@ public class FileController extends AbstractValidFile implements UserIml {
 
   // ============= CHUNK UPLOAD ENDPOINTS =============
 
+  /**
+   * Khởi tạo chunked upload - server pre-allocate file đích, chunk ghi thẳng vào đúng offset
+   */
+  @PostMapping("/chunk/init")
+  @Timed(value = "file.chunk_init", description = "Time taken to initialize chunk upload")
+  public ResponseEntity<?> initChunkUpload(@RequestBody @NotNull ChunkInitRequest request,
+                                           @RequestHeader(value = "Authorization", required = false) String authHeader) {
+    logger.info("Initializing chunk upload for file: {} ({} bytes, {} chunks)",
+        request.filename, request.totalSize, request.totalChunks);
+
+    try {
+      ResponseEntity<?> validationError = validateChunkInitRequest(request, authHeader);
+      if (validationError != null) return validationError;
+
+      UploadSession session = chunkUploadService.initUpload(authHeader, request);
+      return createChunkInitSuccessResponse(session.getUploadId(), request);
+
+    } catch (IllegalArgumentException e) {
+      logger.warn("Invalid chunk init request for file {}: {}", request.filename, e.getMessage());
+      return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+
+    } catch (Exception e) {
+      logger.error("Error initializing chunk upload for file {}: {}", request.filename, e.getMessage(), e);
+      return createMergeErrorResponse("Init failed: " + e.getMessage(), request.filename);
+    }
+  }
+
   /**
    * Upload file chunk
    */
@@ -269,21 +368,38 @@ public class FileController extends AbstractValidFile implements UserIml {
                                        @RequestParam("filename") @NotBlank String filename,
                                        @RequestParam("chunkIndex") @Min(0) int chunkIndex,
                                        @RequestParam("totalChunks") @Min(1) int totalChunks,
+                                       @RequestParam(value = "totalSize", required = false) Long totalSize,
+                                       @RequestParam(value = "chunkSize", required = false) Integer chunkSize,
+                                       @RequestParam(value = "uploadId", required = false) String uploadId,
                                        @RequestHeader(value = "Authorization", required = false) String authHeader) {
 
     logger.debug("Uploading chunk {}/{} for file: {}", chunkIndex + 1, totalChunks, filename);
 
     try {
       ResponseEntity<?> validationError = validateChunkRequest(file, chunkIndex, totalChunks, authHeader);
+      if (validationError == null) validationError = validateUploadId(uploadId);
       if (validationError != null) return validationError;
 
-      // Save chunk asynchronously
-      CompletableFuture<Void> future = chunkUploadService.saveChunkAsync(authHeader, file, filename, chunkIndex);
-      future.get(); // Wait for completion
+      // Client gửi kèm layout thì không cần gọi /chunk/init riêng
+      if (totalSize != null && chunkSize != null) {
+        ChunkInitRequest init = new ChunkInitRequest();
+        init.filename = filename;
+        init.totalSize = totalSize;
+        init.chunkSize = chunkSize;
+        init.totalChunks = totalChunks;
+        chunkUploadService.ensureInitialized(authHeader, uploadId, init);
+      }
+
+      // Ghi trực tiếp trên request thread - client gửi song song nhiều chunk để tăng tốc
+      chunkUploadService.saveChunk(authHeader, uploadId, file, filename, chunkIndex, totalChunks);
 
       logger.info("Chunk {}/{} uploaded successfully for file: {}", chunkIndex + 1, totalChunks, filename);
       return createChunkSuccessResponse(chunkIndex, totalChunks, filename);
 
+    } catch (IllegalArgumentException e) {
+      logger.warn("Invalid chunk {}/{} for file {}: {}", chunkIndex + 1, totalChunks, filename, e.getMessage());
+      return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+
     } catch (Exception e) {
       logger.error("Error uploading chunk {}/{} for file {}: {}", chunkIndex + 1, totalChunks, filename, e.getMessage(), e);
       return createChunkErrorResponse("Chunk upload failed: " + e.getMessage(), chunkIndex, filename);
@@ -301,14 +417,20 @@ public class FileController extends AbstractValidFile implements UserIml {
 
     try {
       ResponseEntity<?> validationError = validateMergeRequest(request, authHeader);
+      if (validationError == null) validationError = validateUploadId(request.uploadId);
       if (validationError != null) return validationError;
 
       // Delegate to chunk service
-      chunkUploadService.mergeChunksAndSave(authHeader, request.filename, request.totalChunks, request.type);
+      chunkUploadService.mergeChunksAndSave(authHeader, request.uploadId, request.filename,
+          request.totalChunks, request.type);
 
       logger.info("Chunk merge completed successfully for file: {}", request.filename);
       return createMergeSuccessResponse(request.totalChunks, request.filename);
 
+    } catch (IllegalArgumentException e) {
+      logger.warn("Invalid merge request for file {}: {}", request.filename, e.getMessage());
+      return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+
     } catch (Exception e) {
       logger.error("Error merging chunks for file {}: {}", request.filename, e.getMessage(), e);
       return createMergeErrorResponse("Merge failed: " + e.getMessage(), request.filename);
@@ -330,12 +452,16 @@ public class FileController extends AbstractValidFile implements UserIml {
   @Timed(value = "file.chunk_check", description = "Time taken to check chunk existence")
   public ResponseEntity<?> checkChunk(@RequestParam("filename") @NotBlank String filename,
                                       @RequestParam("chunkIndex") @Min(0) int chunkIndex,
+                                      @RequestParam(value = "uploadId", required = false) String uploadId,
                                       @RequestHeader(value = "Authorization", required = false) String authHeader) {
 
     logger.debug("Checking chunk existence: {} index {}", filename, chunkIndex);
 
+    ResponseEntity<?> validationError = validateUploadId(uploadId);
+    if (validationError != null) return validationError;
+
     try {
-      boolean exists = chunkUploadService.chunkExists(authHeader, filename, chunkIndex);
+      boolean exists = chunkUploadService.chunkExists(authHeader, uploadId, filename, chunkIndex);
       return createChunkCheckSuccessResponse(exists, chunkIndex, filename);
 
     } catch (Exception e) {
@@ -344,6 +470,35 @@ public class FileController extends AbstractValidFile implements UserIml {
     }
   }
 
+  /**
+   * Trả về toàn bộ chunk còn thiếu trong một lần gọi (dùng để resume upload)
+   */
+  @GetMapping("/chunk/status")
+  @Timed(value = "file.chunk_status", description = "Time taken to get chunk upload status")
+  public ResponseEntity<?> getChunkStatus(@RequestParam("filename") @NotBlank String filename,
+                                          @RequestParam("totalChunks") @Min(1) int totalChunks,
+                                          @RequestParam(value = "uploadId", required = false) String uploadId,
+                                          @RequestHeader(value = "Authorization", required = false) String authHeader) {
+
+    logger.debug("Getting chunk status: {} ({} chunks)", filename, totalChunks);
+
+    ResponseEntity<?> validationError = validateUploadId(uploadId);
+    if (validationError != null) return validationError;
+
+    try {
+      List<Integer> missingChunks = chunkUploadService.getMissingChunks(authHeader, uploadId, filename, totalChunks);
+      return createChunkStatusSuccessResponse(missingChunks, totalChunks, filename);
+
+    } catch (IllegalArgumentException e) {
+      logger.warn("Invalid chunk status request for {}: {}", filename, e.getMessage());
+      return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+
+    } catch (Exception e) {
+      logger.error("Error getting chunk status for {}: {}", filename, e.getMessage());
+      return createMergeErrorResponse("Failed to get chunk status", filename);
+    }
+  }
+
   // ============= FILE INFORMATION =============
 
   /**
@@ -0,0 +1,15 @@
+package com.upload_file.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class ChunkInitRequest {
+  public String filename;
+  public long totalSize;
+  public int chunkSize;
+  public int totalChunks;
+  public String type;
+  public String checksum;
+}
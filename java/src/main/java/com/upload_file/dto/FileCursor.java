@@ -0,0 +1,38 @@
+package com.upload_file.dto;
+
+import com.upload_file.entity.FileDB;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Vị trí keyset (creation_time, id) của bản ghi cuối trang, gửi cho client dưới dạng chuỗi opaque (base64url)
+ */
+public record FileCursor(long creationTime, String id) {
+
+  // Trước mọi bản ghi - id UUID luôn lớn hơn chuỗi rỗng
+  public static final FileCursor START = new FileCursor(Long.MIN_VALUE, "");
+
+  public static FileCursor after(@NotNull FileDB fileDB) {
+    return new FileCursor(fileDB.getCreationTime() != null ? fileDB.getCreationTime() : 0L, fileDB.getId());
+  }
+
+  public static FileCursor decode(String cursor) {
+    if (cursor == null || cursor.isBlank()) {
+      return START;
+    }
+    try {
+      String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      int separator = value.indexOf(':');
+      return new FileCursor(Long.parseLong(value.substring(0, separator)), value.substring(separator + 1));
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Invalid cursor", e);
+    }
+  }
+
+  public String encode() {
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString((creationTime + ":" + id).getBytes(StandardCharsets.UTF_8));
+  }
+}
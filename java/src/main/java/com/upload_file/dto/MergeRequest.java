@@ -6,6 +6,7 @@ import lombok.Setter;
 @Getter
 @Setter
 public class MergeRequest {
+  public String uploadId;
   public String filename;
   public int totalChunks;
   public String type;
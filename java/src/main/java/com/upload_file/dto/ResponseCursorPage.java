@@ -0,0 +1,19 @@
+package com.upload_file.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Setter
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class ResponseCursorPage {
+  private List<?> items;
+  private String nextCursor;      // null khi đã hết dữ liệu
+  private boolean hasNext;
+  private Long totalElements;     // chỉ có khi client yêu cầu count=true
+}
@@ -0,0 +1,13 @@
+package com.upload_file.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class UploadPrecheckRequest {
+  public String filename;
+  public long size;
+  public String hash;   // SHA-256 hex do client tính
+  public String type;
+}
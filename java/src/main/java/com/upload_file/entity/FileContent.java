@@ -0,0 +1,30 @@
+package com.upload_file.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.GenericGenerator;
+
+/**
+ * Nội dung của file lưu ở tầng DATABASE - tách khỏi bảng files để đọc metadata không kéo theo blob
+ */
+@Entity
+@Table(name = "file_contents")
+@Setter
+@Getter
+@NoArgsConstructor
+public class FileContent {
+  @Id
+  @GeneratedValue(generator = "uuid")
+  @GenericGenerator(name = "uuid", strategy = "uuid2")
+  private String id;
+
+  @Lob
+  @Column(name = "data", columnDefinition = "LONGBLOB")
+  private byte[] data;
+
+  public FileContent(byte[] data) {
+    this.data = data;
+  }
+}
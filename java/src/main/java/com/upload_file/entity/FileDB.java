@@ -9,13 +9,17 @@ import org.hibernate.annotations.GenericGenerator;
     @Index(name = "idx_files_uploaded_by", columnList = "uploaded_by"),
     @Index(name = "idx_files_name_uploaded_by", columnList = "name, uploaded_by"),
     @Index(name = "idx_files_creation_date", columnList = "creation_date"),
-    @Index(name = "idx_files_name", columnList = "name")
+    @Index(name = "idx_files_name", columnList = "name"),
+    @Index(name = "idx_files_content_hash", columnList = "content_hash"),
+    // Keyset pagination của /files/list/cursor: seek + ORDER BY không cần filesort
+    @Index(name = "idx_files_uploaded_by_creation_time", columnList = "uploaded_by, creation_time, id"),
+    @Index(name = "idx_files_creation_time", columnList = "creation_time, id")
 })
 @Setter
 @Getter
 @AllArgsConstructor
 @NoArgsConstructor
-@ToString(exclude = {"data"})
+@ToString(exclude = {"content"})
 public class FileDB {
   @Id
   @GeneratedValue(generator = "uuid")
@@ -28,12 +32,22 @@ public class FileDB {
   @Column(name = "creation_date")
   private String creationDate;
 
+  // creation_date dạng số (millis) - sắp xếp/phân trang theo số thay vì chuỗi
+  @Column(name = "creation_time")
+  private Long creationTime;
+
   @Column(name = "onedrive_id")
   private String oneDriveId;
 
-  @Lob
-  @Column(name = "data", columnDefinition = "LONGBLOB")
-  private byte[] data;
+  // SHA-256 của nội dung - các file trùng hash dùng chung path/oneDriveId/content (xem StorageObject)
+  @Column(name = "content_hash", length = 64)
+  private String contentHash;
+
+  // Blob nằm ở bảng file_contents, chỉ load khi thật sự đọc nội dung (getData).
+  // Có thể dùng chung nên không cascade remove - FileContentStore.delete xóa khi hết tham chiếu
+  @ManyToOne(fetch = FetchType.LAZY, cascade = CascadeType.PERSIST)
+  @JoinColumn(name = "content_id")
+  private FileContent content;
 
   @ManyToOne(fetch = FetchType.LAZY)
   @JoinColumn(name = "user_id")
@@ -46,10 +60,32 @@ public class FileDB {
     this.name = name;
     this.type = type;
     this.size = size;
-    this.data = data;
+    setData(data);
     this.creationDate = creationDate;
     this.uploadedBy = uploadedBy;
     this.oneDriveId = null;
     this.path = null;
+    fillCreationTime();
+  }
+
+  @PrePersist
+  void fillCreationTime() {
+    if (creationTime == null && creationDate != null && creationDate.matches("\\d+")) {
+      creationTime = Long.parseLong(creationDate);
+    }
+  }
+
+  public byte[] getData() {
+    return content != null ? content.getData() : null;
+  }
+
+  public void setData(byte[] data) {
+    if (data == null) {
+      content = null;
+    } else if (content == null) {
+      content = new FileContent(data);
+    } else {
+      content.setData(data);
+    }
   }
 }
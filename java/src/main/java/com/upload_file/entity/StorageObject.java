@@ -0,0 +1,25 @@
+package com.upload_file.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Nội dung vật lý dùng chung giữa các FileDB có cùng SHA-256 - refCount đếm số bản ghi files đang trỏ tới
+ */
+@Entity
+@Table(name = "storage_objects")
+@Setter
+@Getter
+@NoArgsConstructor
+public class StorageObject {
+  @Id
+  @Column(name = "content_hash", length = 64)
+  private String contentHash;
+
+  private Long size;
+
+  @Column(name = "ref_count", nullable = false)
+  private long refCount;
+}
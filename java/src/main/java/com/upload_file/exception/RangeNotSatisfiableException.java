@@ -0,0 +1,17 @@
+package com.upload_file.exception;
+
+import lombok.Getter;
+
+/**
+ * Range header hợp lệ nhưng không range nào nằm trong file - trả 416 kèm Content-Range chứa size của file
+ */
+@Getter
+public class RangeNotSatisfiableException extends RuntimeException {
+
+  private final long fileSize;
+
+  public RangeNotSatisfiableException(String rangeHeader, long fileSize) {
+    super(String.format("Range '%s' not satisfiable for size %d", rangeHeader, fileSize));
+    this.fileSize = fileSize;
+  }
+}
@@ -4,30 +4,92 @@ import com.upload_file.entity.FileDB;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface FileDBRepository  extends JpaRepository<FileDB, String> {
 
-  Page<FileDB> findByNameContainingOrderByCreationDateAsc(String name, Pageable pageable);
+  Optional<FileDB> findFirstByContentHash(String contentHash);
+
+  Optional<FileDB> findFirstByContentHashAndUploadedBy(String contentHash, String uploadedBy);
+
+  Page<FileDB> findByNameContainingOrderByCreationTimeAscIdAsc(String name, Pageable pageable);
 
-  Page<FileDB> findAllByOrderByCreationDateAsc(Pageable pageable);
+  Page<FileDB> findAllByOrderByCreationTimeAscIdAsc(Pageable pageable);
 
   default Page<FileDB> findAllByNameOrderByCreationDate(String name, Pageable pageable) {
     if (name == null || name.trim().isEmpty()) {
-      return findAllByOrderByCreationDateAsc(pageable);
+      return findAllByOrderByCreationTimeAscIdAsc(pageable);
     }
-    return findByNameContainingOrderByCreationDateAsc(name, pageable);
+    return findByNameContainingOrderByCreationTimeAscIdAsc(name, pageable);
   }
 
-  Page<FileDB> findByNameContainingAndUploadedByOrderByCreationDateAsc(String name, String uploadedBy, Pageable pageable);
+  Page<FileDB> findByNameContainingAndUploadedByOrderByCreationTimeAscIdAsc(String name, String uploadedBy, Pageable pageable);
 
-  Page<FileDB> findAllByUploadedByOrderByCreationDateAsc(String uploadedBy, Pageable pageable);
+  Page<FileDB> findAllByUploadedByOrderByCreationTimeAscIdAsc(String uploadedBy, Pageable pageable);
 
   default Page<FileDB> findAllByNameAndUserOrderByCreationDate(String name, String uploadedBy, Pageable pageable) {
     if (name == null || name.trim().isEmpty()) {
-      return findAllByUploadedByOrderByCreationDateAsc(uploadedBy, pageable);
+      return findAllByUploadedByOrderByCreationTimeAscIdAsc(uploadedBy, pageable);
+    }
+    return findByNameContainingAndUploadedByOrderByCreationTimeAscIdAsc(name, uploadedBy, pageable);
+  }
+
+  // ============= Keyset pagination (creation_time, id) - không OFFSET, không COUNT =============
+  // Pageable chỉ dùng làm LIMIT (luôn page 0); kiểu trả về List nên Spring Data không chạy count query
+
+  @Query("SELECT f FROM FileDB f WHERE f.creationTime > :time OR (f.creationTime = :time AND f.id > :id) " +
+      "ORDER BY f.creationTime ASC, f.id ASC")
+  List<FileDB> findAllAfter(@Param("time") long time, @Param("id") String id, Pageable limit);
+
+  @Query("SELECT f FROM FileDB f WHERE f.name LIKE %:name% " +
+      "AND (f.creationTime > :time OR (f.creationTime = :time AND f.id > :id)) " +
+      "ORDER BY f.creationTime ASC, f.id ASC")
+  List<FileDB> findByNameAfter(@Param("name") String name, @Param("time") long time, @Param("id") String id,
+                               Pageable limit);
+
+  @Query("SELECT f FROM FileDB f WHERE f.uploadedBy = :uploadedBy " +
+      "AND (f.creationTime > :time OR (f.creationTime = :time AND f.id > :id)) " +
+      "ORDER BY f.creationTime ASC, f.id ASC")
+  List<FileDB> findByUploadedByAfter(@Param("uploadedBy") String uploadedBy, @Param("time") long time,
+                                     @Param("id") String id, Pageable limit);
+
+  @Query("SELECT f FROM FileDB f WHERE f.uploadedBy = :uploadedBy AND f.name LIKE %:name% " +
+      "AND (f.creationTime > :time OR (f.creationTime = :time AND f.id > :id)) " +
+      "ORDER BY f.creationTime ASC, f.id ASC")
+  List<FileDB> findByNameAndUploadedByAfter(@Param("name") String name, @Param("uploadedBy") String uploadedBy,
+                                            @Param("time") long time, @Param("id") String id, Pageable limit);
+
+  default List<FileDB> findAllByNameAfter(String name, long time, String id, Pageable limit) {
+    if (name == null || name.trim().isEmpty()) {
+      return findAllAfter(time, id, limit);
+    }
+    return findByNameAfter(name, time, id, limit);
+  }
+
+  default List<FileDB> findAllByNameAndUserAfter(String name, String uploadedBy, long time, String id, Pageable limit) {
+    if (name == null || name.trim().isEmpty()) {
+      return findByUploadedByAfter(uploadedBy, time, id, limit);
+    }
+    return findByNameAndUploadedByAfter(name, uploadedBy, time, id, limit);
+  }
+
+  long countByNameContaining(String name);
+
+  long countByNameContainingAndUploadedBy(String name, String uploadedBy);
+
+  long countByUploadedBy(String uploadedBy);
+
+  default long countAllByNameAndUser(String name, String uploadedBy, boolean isAdmin) {
+    boolean noSearch = name == null || name.trim().isEmpty();
+    if (isAdmin) {
+      return noSearch ? count() : countByNameContaining(name);
     }
-    return findByNameContainingAndUploadedByOrderByCreationDateAsc(name, uploadedBy, pageable);
+    return noSearch ? countByUploadedBy(uploadedBy) : countByNameContainingAndUploadedBy(name, uploadedBy);
   }
 }
@@ -0,0 +1,26 @@
+package com.upload_file.repository;
+
+import com.upload_file.entity.StorageObject;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface StorageObjectRepository extends JpaRepository<StorageObject, String> {
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("select s from StorageObject s where s.contentHash = :hash")
+  Optional<StorageObject> findForUpdate(@Param("hash") String contentHash);
+
+  // Trả 0 nếu upload khác đã đăng ký cùng hash trước
+  @Modifying
+  @Query(value = "INSERT IGNORE INTO storage_objects (content_hash, size, ref_count) VALUES (:hash, :size, 1)",
+      nativeQuery = true)
+  int insertIfAbsent(@Param("hash") String contentHash, @Param("size") Long size);
+}
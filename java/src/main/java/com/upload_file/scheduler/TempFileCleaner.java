@@ -1,33 +1,53 @@
 package com.upload_file.scheduler;
 
+import com.upload_file.service.UploadSessionRegistry;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Stream;
 
+/**
+ * Session hết hạn được UploadSessionRegistry tự dọn - job này chỉ xóa thư mục mồ côi
+ * (không thuộc session nào, vd: còn sót lại khi journal bị mất)
+ */
 @Component
 public class TempFileCleaner {
 
-  private final Path tempDir = Paths.get("upload_tmp");
+  private static final Logger logger = LoggerFactory.getLogger(TempFileCleaner.class);
+
+  @Autowired
+  private UploadSessionRegistry uploadSessionRegistry;
 
   @Scheduled(fixedRate = 3600 * 1000) // mỗi giờ chạy 1 lần
   public void cleanOldChunks() throws IOException {
-    if (!Files.exists(tempDir)) return;
-
-    Files.list(tempDir)
-        .filter(this::isOlderThanHours)
-        .forEach(path -> {
-          try {
-            Files.deleteIfExists(path);
-            System.out.println("Delete chunk success!");
-          } catch (IOException e) {
-            System.err.println("Could not delete chunk: " + path);
-          }
-        });
+    Path chunksRoot = uploadSessionRegistry.getChunksRoot();
+    if (!Files.exists(chunksRoot)) return;
+
+    List<Path> userDirs;
+    try (Stream<Path> stream = Files.list(chunksRoot)) {
+      userDirs = stream.filter(Files::isDirectory).toList();
+    }
+
+    for (Path userDir : userDirs) {
+      try (Stream<Path> stream = Files.list(userDir)) {
+        stream.filter(Files::isDirectory)
+            .filter(dir -> !uploadSessionRegistry.isActiveDirectory(dir))
+            .filter(this::isOlderThanHours)
+            .forEach(dir -> {
+              FileUtils.deleteQuietly(dir.toFile());
+              logger.info("Deleted orphan chunk directory: {}", dir);
+            });
+      }
+    }
   }
 
   private boolean isOlderThanHours(Path path) {
@@ -0,0 +1,88 @@
+package com.upload_file.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge các chunk thành một file bằng FileChannel.transferTo
+ * (kernel copy_file_range/sendfile), không copy qua buffer trong JVM
+ */
+@Service
+public class ChunkMergeService {
+
+  private static final Logger logger = LoggerFactory.getLogger(ChunkMergeService.class);
+
+  private final Timer mergeTimer;
+  private final DistributionSummary mergeThroughput;
+
+  public ChunkMergeService(MeterRegistry meterRegistry) {
+    this.mergeTimer = Timer.builder("file.merge.duration")
+        .description("Time taken to merge chunk files")
+        .register(meterRegistry);
+    this.mergeThroughput = DistributionSummary.builder("file.merge.throughput")
+        .description("Chunk merge throughput")
+        .baseUnit("MB/s")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Ghép chunk_0..chunk_{totalChunks-1} trong chunkDir vào target, trả về tổng số bytes
+   */
+  public long merge(@NotNull File chunkDir, int totalChunks, @NotNull File target) throws IOException {
+    long startNanos = System.nanoTime();
+    long written = 0;
+
+    try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (int i = 0; i < totalChunks; i++) {
+        File chunkFile = new File(chunkDir, String.format("chunk_%d", i));
+        if (!chunkFile.exists()) {
+          throw new IOException("Missing chunk " + i + " for file: " + target.getName());
+        }
+
+        try (FileChannel in = FileChannel.open(chunkFile.toPath(), StandardOpenOption.READ)) {
+          written += transferFully(in, out, written);
+        }
+      }
+    }
+
+    record(written, System.nanoTime() - startNanos, target);
+    return written;
+  }
+
+  /**
+   * transferTo có thể copy ít hơn yêu cầu (vd: giới hạn 2GB/lần trên Linux) nên phải lặp
+   */
+  private long transferFully(FileChannel in, FileChannel out, long outPosition) throws IOException {
+    long size = in.size();
+    long position = 0;
+    while (position < size) {
+      long transferred = in.transferTo(position, size - position, out.position(outPosition + position));
+      if (transferred <= 0) {
+        throw new IOException("transferTo made no progress at position " + position + "/" + size);
+      }
+      position += transferred;
+    }
+    return size;
+  }
+
+  private void record(long bytes, long elapsedNanos, File target) {
+    mergeTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+    double seconds = elapsedNanos / 1_000_000_000.0;
+    double mbPerSecond = seconds > 0 ? (bytes / (1024.0 * 1024.0)) / seconds : 0;
+    mergeThroughput.record(mbPerSecond);
+    logger.info("Merged {} bytes into {} in {}ms ({} MB/s)",
+        bytes, target.getName(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos), String.format("%.1f", mbPerSecond));
+  }
+}
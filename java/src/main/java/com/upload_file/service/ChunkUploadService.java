@@ -1,61 +1,106 @@
 package com.upload_file.service;
 
 import com.upload_file.common.UserIml;
-import com.upload_file.entity.FileDB;
+import com.upload_file.dto.ChunkInitRequest;
 import com.upload_file.service.abstract_file.AbstractFileService;
 import io.micrometer.core.annotation.Timed;
+import org.apache.commons.io.FileUtils;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.util.concurrent.CompletableFuture;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
 
 @Service
 public class ChunkUploadService extends AbstractFileService implements UserIml {
 
   private static final Logger logger = LoggerFactory.getLogger(ChunkUploadService.class);
   private static final String systemProperty = System.getProperty("java.io.tmpdir");
+  private static final String TARGET_FILE = "upload.part";
+  private static final String CHUNK_PREFIX = "chunk_";
+  // Chunk nhỏ nhất chấp nhận cho client không khai báo layout - dùng để giới hạn totalChunks
+  private static final long MIN_CHUNK_SIZE = 64 * 1024;
+
+  @Value("${spring.servlet.multipart.max-file-size:5GB}")
+  private DataSize maxUploadSize;
 
   @Autowired
   private FileUploadService fileUploadService;
 
+  @Autowired
+  private ChunkMergeService chunkMergeService;
+
+  @Autowired
+  private UploadSessionRegistry uploadSessionRegistry;
+
   /**
-   * Save chunk async
+   * Khởi tạo upload session mới: pre-allocate một file đích (sparse) để các chunk ghi thẳng vào đúng offset
    */
-  @Async("taskExecutor")
-  public CompletableFuture<Void> saveChunkAsync(String authHeader, MultipartFile file,
-                                                String filename, int chunkIndex) {
-    try {
-      saveChunk(authHeader, file, filename, chunkIndex);
-      return CompletableFuture.completedFuture(null);
-    } catch (IOException e) {
-      logger.error("Error saving chunk async: {}", e.getMessage(), e);
-      return CompletableFuture.failedFuture(e);
-    }
+  @Timed(value = "file.chunk_init", description = "Time taken to initialize chunk upload")
+  public UploadSession initUpload(String authHeader, @NotNull ChunkInitRequest request) throws IOException {
+    return openPreallocated(resolveUsername(authHeader, "init"), UUID.randomUUID().toString(), request);
   }
 
   /**
-   * Save single chunk
+   * Client gửi layout kèm chunk (không gọi /chunk/init) - mở session nếu chưa có
+   */
+  public UploadSession ensureInitialized(String authHeader, String uploadId,
+                                         @NotNull ChunkInitRequest request) throws IOException {
+    requireValidUploadId(uploadId);
+    String username = resolveUsername(authHeader, "init");
+    String id = uploadId != null ? uploadId : legacyUploadId(username, request.filename);
+    return openPreallocated(username, id, request);
+  }
+
+  /**
+   * Save single chunk - chạy trực tiếp trên request thread, các chunk có thể đến song song và không theo thứ tự
    */
   @Timed(value = "file.save_chunk", description = "Time taken to save file chunk")
-  public void saveChunk(String authHeader, MultipartFile file, String filename,
-                        int chunkIndex) throws IOException {
-    String tempDir = getTempDir(authHeader, filename, "saving chunk");
-    File dir = new File(tempDir);
+  public void saveChunk(String authHeader, String uploadId, MultipartFile file, String filename,
+                        int chunkIndex, int totalChunks) throws IOException {
+    String username = resolveUsername(authHeader, "saving chunk");
+    UploadSession session = findSession(username, uploadId, filename);
+    checkTotalChunks(session, totalChunks);
+    if (session == null) {
+      if (uploadId != null) {
+        throw new FileNotFoundException("Upload session not found: " + uploadId);
+      }
+      session = openChunkSession(username, filename, totalChunks);
+    }
+
+    if (session.isPreallocated()) {
+      writeChunkAt(session, file, chunkIndex);
+      return;
+    }
+    session.expandTo(totalChunks);
+
+    File dir = session.getDirectory().toFile();
     if (!dir.exists()) {
       dir.mkdirs();
     }
 
-    String chunkFilename = String.format("chunk_%d", chunkIndex);
+    String chunkFilename = CHUNK_PREFIX + chunkIndex;
     File chunkFile = new File(dir, chunkFilename);
 
     try (FileOutputStream fos = new FileOutputStream(chunkFile);
@@ -68,8 +113,8 @@ public class ChunkUploadService extends AbstractFileService implements UserIml {
       }
       fos.flush();
     }
-
-//    logger.debug("Saved chunk {} for file {} at: {}", chunkIndex, filename, chunkFile.getAbsolutePath());
+    uploadSessionRegistry.markReceived(session, chunkIndex);
+    logger.debug("Saved chunk {} for file {} at: {}", chunkIndex, filename, chunkFile.getAbsolutePath());
   }
 
   /**
@@ -77,26 +122,40 @@ public class ChunkUploadService extends AbstractFileService implements UserIml {
    */
   @Timed(value = "file.merge_chunks", description = "Time taken to merge chunks and save file")
   @Transactional(propagation = Propagation.REQUIRED, isolation = Isolation.READ_COMMITTED, timeout = 300)
-  public void mergeChunksAndSave(String authHeader, String filename, int totalChunks,
+  public void mergeChunksAndSave(String authHeader, String uploadId, String filename, int totalChunks,
                                  String contentType) throws IOException {
-    String tempDir = getTempDir(authHeader, filename, "merging chunks");
-    File dir = new File(tempDir);
-
-    if (!dir.exists()) {
+    String username = resolveUsername(authHeader, "merging chunks");
+    UploadSession session = findSession(username, uploadId, filename);
+    if (session == null || !Files.isDirectory(session.getDirectory())) {
       throw new IOException("Chunks directory not found for file: " + filename);
     }
 
-    File mergedFile = createMergedFile(authHeader, filename, totalChunks, dir);
+    checkTotalChunks(session, totalChunks);
+    session.expandTo(totalChunks);
+    int missing = session.firstMissingChunk();
+    if (missing >= 0) {
+      throw new IOException("Missing chunk " + missing + " for file: " + filename);
+    }
 
-    long fileSize = mergedFile.length();
-    String currentUser = getCurrentUsername();
-    FileDB fileDB = new FileDB(filename, fileSize, contentType, null, currentTimeCreate(), currentUser);
+    String type = contentType != null ? contentType : session.getContentType();
+    File dir = session.getDirectory().toFile();
+    if (session.isPreallocated()) {
+      // Chunk đã nằm đúng vị trí trong file đích - chỉ cần kiểm tra rồi lưu
+      verifyChecksum(session, session.getTarget());
+      fileUploadService.uploadFromPath(session.getTarget(), filename, type);
+      uploadSessionRegistry.complete(session);
+      cleanup(dir, session.getTarget().toFile());
+      logger.info("Successfully finalized pre-allocated upload: {}", filename);
+      return;
+    }
 
-    byte[] fileBytes = Files.readAllBytes(mergedFile.toPath());
+    File mergedFile = createMergedFile(username, filename, totalChunks, dir);
+    verifyChecksum(session, mergedFile.toPath());
 
-    MockMultipartFile mockFile = new MockMultipartFile(filename, filename, contentType, fileBytes);
-    fileUploadService.uploadSingleFile(mockFile);
+    // Storage đọc thẳng từ file đã merge thay vì Files.readAllBytes
+    fileUploadService.uploadFromPath(mergedFile.toPath(), filename, type);
 
+    uploadSessionRegistry.complete(session);
     cleanup(dir, mergedFile);
     logger.info("Successfully merged and saved file: {}", filename);
   }
@@ -104,43 +163,181 @@ public class ChunkUploadService extends AbstractFileService implements UserIml {
   /**
    * Check if chunk exists
    */
-  public boolean chunkExists(String authHeader, String filename, int chunkIndex) throws IOException {
-    String tempDir = getTempDir(authHeader, filename, "existence check");
-    File chunkFile = new File(tempDir, String.format("chunk_%d", chunkIndex));
-    return chunkFile.exists();
+  public boolean chunkExists(String authHeader, String uploadId, String filename, int chunkIndex) throws IOException {
+    UploadSession session = findSession(resolveUsername(authHeader, "existence check"), uploadId, filename);
+    return session != null && session.isReceived(chunkIndex);
   }
 
   /**
-   * Create merged file from chunks
+   * Danh sách chunk còn thiếu - client gọi một lần để resume thay vì check từng chunk
    */
-  @NotNull
-  private File createMergedFile(String authHeader, String filename, int totalChunks,
-                                File dir) throws IOException {
-    String username = extractUserFromToken(authHeader);
-    if (username == null) {
-      username = "user_anonymous";
-      logger.warn("Using anonymous username for merge: {}", username);
+  @Timed(value = "file.chunk_status", description = "Time taken to compute missing chunks")
+  public List<Integer> getMissingChunks(String authHeader, String uploadId, String filename,
+                                        int totalChunks) throws IOException {
+    UploadSession session = findSession(resolveUsername(authHeader, "status"), uploadId, filename);
+    checkTotalChunks(session, totalChunks);
+    if (session == null) {
+      List<Integer> all = new ArrayList<>(totalChunks);
+      for (int i = 0; i < totalChunks; i++) {
+        all.add(i);
+      }
+      return all;
     }
+    session.expandTo(totalChunks);
+    return session.missingChunks();
+  }
 
-    File mergedFile = new File(systemProperty, username + "_merged_" + filename);
+  /**
+   * Tìm session theo uploadId, client cũ chỉ gửi filename thì dùng id suy ra từ user + filename
+   */
+  private UploadSession findSession(String username, String uploadId, String filename) {
+    requireValidUploadId(uploadId);
+    String id = uploadId != null ? uploadId : legacyUploadId(username, filename);
+    return uploadSessionRegistry.get(id, username);
+  }
 
-    try (FileOutputStream fos = new FileOutputStream(mergedFile)) {
-      for (int i = 0; i < totalChunks; i++) {
-        File chunkFile = new File(dir, String.format("chunk_%d", i));
-        if (!chunkFile.exists()) {
-          throw new IOException("Missing chunk " + i + " for file: " + filename);
-        }
+  private void requireValidUploadId(String uploadId) {
+    if (uploadId != null && !UploadSessionRegistry.isValidUploadId(uploadId)) {
+      throw new IllegalArgumentException("Invalid uploadId");
+    }
+  }
+
+  /**
+   * totalChunks do client gửi: session pre-allocate phải khớp layout đã khai báo,
+   * còn lại không được vượt max-file-size / MIN_CHUNK_SIZE (tránh cấp phát bitmap/list khổng lồ)
+   */
+  private void checkTotalChunks(UploadSession session, int totalChunks) {
+    if (session != null && session.isPreallocated()) {
+      if (totalChunks != session.getTotalChunks()) {
+        throw new IllegalArgumentException("totalChunks does not match upload session: expected "
+            + session.getTotalChunks());
+      }
+      return;
+    }
+    long maxChunks = (maxUploadSize.toBytes() + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE;
+    if (totalChunks <= 0 || totalChunks > maxChunks) {
+      throw new IllegalArgumentException("totalChunks must be between 1 and " + maxChunks);
+    }
+  }
+
+  private String legacyUploadId(String username, String filename) {
+    return UUID.nameUUIDFromBytes((username + "/" + filename).getBytes(StandardCharsets.UTF_8)).toString();
+  }
+
+  private UploadSession openPreallocated(String username, String uploadId,
+                                         @NotNull ChunkInitRequest request) throws IOException {
+    validateLayout(request.totalSize, request.chunkSize, request.totalChunks);
+    UploadSession existing = uploadSessionRegistry.get(uploadId, username);
+    if (existing != null) {
+      if (!existing.isPreallocated() || existing.getTotalSize() != request.totalSize
+          || existing.getChunkSize() != request.chunkSize) {
+        throw new IllegalArgumentException("Upload already initialized with a different layout: " + request.filename);
+      }
+      return existing;
+    }
+
+    Path dir = uploadSessionRegistry.sessionDirectory(username, uploadId);
+    Files.createDirectories(dir);
+    Path target = dir.resolve(TARGET_FILE);
+    try (RandomAccessFile raf = new RandomAccessFile(target.toFile(), "rw")) {
+      // setLength không ghi dữ liệu - filesystem hỗ trợ sparse file sẽ không cấp block trước
+      raf.setLength(request.totalSize);
+    }
 
-        try (FileInputStream fis = new FileInputStream(chunkFile)) {
-          byte[] buffer = new byte[8192];
-          int bytesRead;
-          while ((bytesRead = fis.read(buffer)) != -1) {
-            fos.write(buffer, 0, bytesRead);
-          }
+    UploadSession session = uploadSessionRegistry.register(new UploadSession(uploadId, username,
+        request.filename, request.type, request.totalSize, request.chunkSize, request.totalChunks,
+        request.checksum, dir, target, System.currentTimeMillis()));
+    logger.info("Pre-allocated {} bytes for chunked upload {}: {}", request.totalSize, uploadId, request.filename);
+    return session;
+  }
+
+  private UploadSession openChunkSession(String username, String filename, int totalChunks) throws IOException {
+    String uploadId = legacyUploadId(username, filename);
+    Path dir = uploadSessionRegistry.sessionDirectory(username, uploadId);
+    Files.createDirectories(dir);
+    return uploadSessionRegistry.register(new UploadSession(uploadId, username, filename, null,
+        -1, -1, totalChunks, null, dir, null, System.currentTimeMillis()));
+  }
+
+  /**
+   * Ghi chunk trực tiếp vào file đích tại offset chunkIndex * chunkSize
+   */
+  private void writeChunkAt(@NotNull UploadSession session, @NotNull MultipartFile file,
+                            int chunkIndex) throws IOException {
+    if (chunkIndex >= session.getTotalChunks()) {
+      throw new IllegalArgumentException("Invalid chunk index: " + chunkIndex);
+    }
+    long position = (long) chunkIndex * session.getChunkSize();
+    long expected = Math.min(session.getChunkSize(), session.getTotalSize() - position);
+    if (file.getSize() != expected) {
+      throw new IllegalArgumentException("Chunk " + chunkIndex + " has " + file.getSize()
+          + " bytes, expected " + expected);
+    }
+
+    // Mỗi chunk mở channel riêng nên các chunk song song ghi vào các vùng khác nhau không ảnh hưởng nhau
+    try (FileChannel channel = FileChannel.open(session.getTarget(), StandardOpenOption.WRITE);
+         ReadableByteChannel in = Channels.newChannel(file.getInputStream())) {
+      long written = 0;
+      while (written < expected) {
+        long transferred = channel.transferFrom(in, position + written, expected - written);
+        if (transferred <= 0) {
+          throw new IOException("Chunk " + chunkIndex + " ended after " + written + " bytes");
         }
+        written += transferred;
       }
-      fos.flush();
     }
+    uploadSessionRegistry.markReceived(session, chunkIndex);
+  }
+
+  /**
+   * So sánh SHA-256 client khai báo lúc init (nếu có) với file đã ghép
+   */
+  private void verifyChecksum(@NotNull UploadSession session, Path file) throws IOException {
+    if (session.getChecksum() == null || session.getChecksum().isBlank()) {
+      return;
+    }
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    try (InputStream in = Files.newInputStream(file)) {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    String actual = HexFormat.of().formatHex(digest.digest());
+    if (!actual.equalsIgnoreCase(session.getChecksum())) {
+      throw new IOException("Checksum mismatch for " + session.getFilename() + ": expected "
+          + session.getChecksum() + ", got " + actual);
+    }
+  }
+
+  private void validateLayout(long totalSize, int chunkSize, int totalChunks) {
+    if (totalSize <= 0 || chunkSize <= 0 || totalChunks <= 0) {
+      throw new IllegalArgumentException("totalSize, chunkSize and totalChunks must be positive");
+    }
+    // Kiểm tra trước raf.setLength - không cho client pre-allocate file lớn hơn giới hạn upload
+    if (totalSize > maxUploadSize.toBytes()) {
+      throw new IllegalArgumentException("totalSize exceeds maximum upload size of " + maxUploadSize);
+    }
+    if ((totalSize + chunkSize - 1) / chunkSize != totalChunks) {
+      throw new IllegalArgumentException("totalChunks does not match totalSize / chunkSize");
+    }
+  }
+
+  /**
+   * Create merged file from chunks
+   */
+  @NotNull
+  private File createMergedFile(String username, String filename, int totalChunks,
+                                File dir) throws IOException {
+    File mergedFile = new File(systemProperty, username + "_merged_" + filename);
+
+    chunkMergeService.merge(dir, totalChunks, mergedFile);
     return mergedFile;
   }
 
@@ -150,15 +347,7 @@ public class ChunkUploadService extends AbstractFileService implements UserIml {
   private void cleanup(File chunkDir, File mergedFile) {
     try {
       // Xóa chunks
-      if (chunkDir.exists()) {
-        File[] chunks = chunkDir.listFiles();
-        if (chunks != null) {
-          for (File chunk : chunks) {
-            chunk.delete();
-          }
-        }
-        chunkDir.delete();
-      }
+      FileUtils.deleteQuietly(chunkDir);
 
       // Xóa merged file tạm
       if (mergedFile.exists()) {
@@ -170,57 +359,14 @@ public class ChunkUploadService extends AbstractFileService implements UserIml {
   }
 
   /**
-   * Get temp directory for chunks
+   * Username dùng làm thư mục chứa các session
    */
-  private String getTempDir(String authHeader, String filename, String message) throws IOException {
+  private String resolveUsername(String authHeader, String message) throws IOException {
     String username = extractUserFromToken(authHeader);
     if (username == null) {
       username = "user_anonymous";
       logger.warn("Using username-based directory for chunk {}: {}", message, username);
     }
-    return systemProperty + "/chunks/" + username + "/" + filename;
-  }
-
-  /**
-   * Mock MultipartFile class for internal use
-   */
-  private static class MockMultipartFile implements MultipartFile {
-    private final String name;
-    private final String originalFilename;
-    private final String contentType;
-    private final byte[] content;
-
-    public MockMultipartFile(String name, String originalFilename, String contentType, byte[] content) {
-      this.name = name;
-      this.originalFilename = originalFilename;
-      this.contentType = contentType;
-      this.content = content;
-    }
-
-    @Override
-    public String getName() { return name; }
-
-    @Override
-    public String getOriginalFilename() { return originalFilename; }
-
-    @Override
-    public String getContentType() { return contentType; }
-
-    @Override
-    public boolean isEmpty() { return content.length == 0; }
-
-    @Override
-    public long getSize() { return content.length; }
-
-    @Override
-    public byte[] getBytes() { return content; }
-
-    @Override
-    public InputStream getInputStream() { return new ByteArrayInputStream(content); }
-
-    @Override
-    public void transferTo(File dest) throws IOException, IllegalStateException {
-      Files.write(dest.toPath(), content);
-    }
+    return username;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,199 @@
+package com.upload_file.service;
+
+import com.upload_file.entity.FileDB;
+import com.upload_file.entity.StorageObject;
+import com.upload_file.repository.FileDBRepository;
+import com.upload_file.repository.StorageObjectRepository;
+import com.upload_file.service.storage.StorageBackend;
+import com.upload_file.service.storage.StorageBackends;
+import io.micrometer.core.annotation.Timed;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Khử trùng lặp nội dung theo SHA-256 cho cả 3 tầng lưu trữ.
+ * File trùng hash chỉ thêm metadata và trỏ tới path/oneDriveId/content của bản đã lưu;
+ * StorageObject.refCount quyết định khi nào nội dung vật lý thật sự bị xóa.
+ */
+@Service
+public class ContentDedupService {
+
+  private static final Logger logger = LoggerFactory.getLogger(ContentDedupService.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  @Autowired
+  private StorageObjectRepository storageObjectRepository;
+
+  @Autowired
+  private FileDBRepository fileDBRepository;
+
+  @Autowired
+  private FileStorageService fileStorageService;
+
+  @Autowired
+  private StorageBackends storageBackends;
+
+  @Timed(value = "file.hash", description = "Time taken to hash file content")
+  public String hash(InputStream content) throws IOException {
+    MessageDigest digest = newDigest();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = content.read(buffer)) != -1) {
+      digest.update(buffer, 0, read);
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  public String hash(Path source) throws IOException {
+    try (InputStream content = Files.newInputStream(source)) {
+      return hash(content);
+    }
+  }
+
+  /**
+   * Gán hash cho file và nếu đã có nội dung cùng hash thì dùng chung nó.
+   * Trả true nếu không cần lưu vật lý nữa (chỉ còn save metadata).
+   */
+  @Transactional(propagation = Propagation.REQUIRED)
+  public boolean attachExisting(@NotNull FileDB fileDB, String contentHash) {
+    return attachExisting(fileDB, contentHash, null);
+  }
+
+  /**
+   * Như trên nhưng chỉ dùng chung nội dung từ file của owner (null = bất kỳ ai).
+   * Dùng cho instant upload, khi hash do client gửi lên chứ không phải server tự tính.
+   */
+  @Transactional(propagation = Propagation.REQUIRED)
+  public boolean attachExisting(@NotNull FileDB fileDB, String contentHash, String owner) {
+    fileDB.setContentHash(contentHash);
+
+    Optional<StorageObject> existing = storageObjectRepository.findForUpdate(contentHash);
+    if (existing.isEmpty()) {
+      return false;
+    }
+    // Bản gốc có thể chưa nhìn thấy được trong snapshot hiện tại - khi đó lưu như file mới
+    Optional<FileDB> source = owner == null
+        ? fileDBRepository.findFirstByContentHash(contentHash)
+        : fileDBRepository.findFirstByContentHashAndUploadedBy(contentHash, owner);
+    if (source.isEmpty() || !Objects.equals(source.get().getSize(), fileDB.getSize())) {
+      return false;
+    }
+
+    FileDB stored = source.get();
+    fileDB.setPath(stored.getPath());
+    fileDB.setOneDriveId(stored.getOneDriveId());
+    fileDB.setContent(stored.getContent());
+
+    StorageObject storageObject = existing.get();
+    storageObject.setRefCount(storageObject.getRefCount() + 1);
+    logger.info("Duplicate content for {} - reusing stored file {} (refs: {})",
+        fileDB.getName(), stored.getId(), storageObject.getRefCount());
+    return true;
+  }
+
+  /**
+   * Đăng ký nội dung vừa lưu vật lý để các upload sau dùng chung
+   */
+  @Transactional(propagation = Propagation.REQUIRED)
+  public void register(@NotNull FileDB fileDB) {
+    if (fileDB.getContentHash() == null) {
+      return;
+    }
+    if (storageObjectRepository.insertIfAbsent(fileDB.getContentHash(), fileDB.getSize()) == 0) {
+      // Upload khác cùng nội dung đăng ký trước - bản này giữ nội dung riêng, xóa như file thường
+      fileDB.setContentHash(null);
+    }
+  }
+
+  /**
+   * Bỏ một tham chiếu tới nội dung của file.
+   * Trả true nếu đây là tham chiếu cuối - caller xóa nội dung vật lý.
+   */
+  @Transactional(propagation = Propagation.REQUIRED)
+  public boolean release(@NotNull FileDB fileDB) {
+    if (fileDB.getContentHash() == null) {
+      return true;
+    }
+    Optional<StorageObject> existing = storageObjectRepository.findForUpdate(fileDB.getContentHash());
+    if (existing.isEmpty()) {
+      return true;
+    }
+
+    StorageObject storageObject = existing.get();
+    if (storageObject.getRefCount() > 1) {
+      storageObject.setRefCount(storageObject.getRefCount() - 1);
+      logger.debug("Content of {} still referenced by {} file(s)", fileDB.getName(), storageObject.getRefCount());
+      return false;
+    }
+    storageObjectRepository.delete(storageObject);
+    return true;
+  }
+
+  /**
+   * Xóa metadata của file và nội dung vật lý nếu đây là tham chiếu cuối.
+   * Nội dung trên disk/OneDrive chỉ bị xóa sau commit: rollback thì files/storage_objects quay lại
+   * và bytes vẫn còn; cũng không gọi Graph trong lúc đang khóa dòng storage_objects.
+   */
+  @Transactional(propagation = Propagation.REQUIRED)
+  public void deleteFile(@NotNull FileDB fileDB) {
+    // Nội dung còn được file khác (cùng hash) dùng thì chỉ xóa metadata
+    boolean lastReference = release(fileDB);
+
+    // Xóa metadata trước - nội dung tầng DATABASE đang bị files.content_id tham chiếu
+    fileStorageService.deleteById(fileDB.getId());
+    if (!lastReference) {
+      return;
+    }
+
+    StorageBackend backend;
+    try {
+      backend = storageBackends.forFile(fileDB);
+    } catch (IOException e) {
+      logger.warn("No stored content to delete for {}: {}", fileDB.getName(), e.getMessage());
+      return;
+    }
+    if (backend.transactional() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+      deleteStoredContent(backend, fileDB);
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        deleteStoredContent(backend, fileDB);
+      }
+    });
+  }
+
+  private void deleteStoredContent(@NotNull StorageBackend backend, @NotNull FileDB fileDB) {
+    try {
+      backend.delete(fileDB);
+    } catch (IOException e) {
+      logger.error("Error deleting stored content of {}: {}", fileDB.getName(), e.getMessage(), e);
+    }
+  }
+
+  private MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+  }
+}
@@ -14,7 +14,6 @@ import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -31,21 +30,8 @@ public class DatabaseStreamingService extends AbstractStreamingService {
 
   public ResponseEntity<?> stream(@NotNull FileDB file, HttpHeaders headers,
                                   HttpServletResponse response) throws IOException {
-    byte[] fileData = file.getData();
-    if (fileData == null || fileData.length == 0) {
-      return ResponseEntity.status(HttpStatus.NOT_FOUND)
-          .body(Map.of("error", "Dữ liệu file không tồn tại"));
-    }
-
-    List<HttpRange> ranges = headers.getRange();
-
     try {
-      if (ranges.isEmpty()) {
-        return streamFullFile(fileData, response);
-      } else {
-        HttpRange range = ranges.get(0);
-        return streamWithRange(fileData, range, response);
-      }
+      return streamDatabaseContent(file, headers.getFirst(HttpHeaders.RANGE), response);
     } catch (Exception e) {
       if (isClientDisconnected(e)) {
         logger.info("Client ngắt kết nối trong quá trình stream từ database");
@@ -0,0 +1,69 @@
+package com.upload_file.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Chuyển blob cũ từ cột files.data sang bảng file_contents (một lần, theo batch).
+ * Cột files.data không còn được map - sau khi migrate xong có thể drop bằng tay.
+ */
+@Component
+public class FileContentMigration {
+
+  private static final Logger logger = LoggerFactory.getLogger(FileContentMigration.class);
+  private static final int BATCH_SIZE = 50;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  @Autowired
+  private FileStorageService fileStorageService;
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void migrateLegacyContent() {
+    if (!hasLegacyDataColumn()) {
+      return;
+    }
+
+    int migrated = 0;
+    List<String> ids;
+    do {
+      ids = jdbcTemplate.queryForList(
+          "SELECT id FROM files WHERE data IS NOT NULL AND content_id IS NULL LIMIT " + BATCH_SIZE, String.class);
+      for (String fileId : ids) {
+        transactionTemplate.executeWithoutResult(status -> moveContent(fileId));
+      }
+      migrated += ids.size();
+    } while (ids.size() == BATCH_SIZE);
+
+    if (migrated > 0) {
+      logger.info("Moved {} file blobs from files.data to file_contents", migrated);
+    }
+  }
+
+  private void moveContent(String fileId) {
+    String contentId = UUID.randomUUID().toString();
+    jdbcTemplate.update("INSERT INTO file_contents (id, data) SELECT ?, data FROM files WHERE id = ?", contentId, fileId);
+    jdbcTemplate.update("UPDATE files SET content_id = ?, data = NULL WHERE id = ?", contentId, fileId);
+    fileStorageService.evict(fileId);
+  }
+
+  private boolean hasLegacyDataColumn() {
+    Integer count = jdbcTemplate.queryForObject(
+        "SELECT COUNT(*) FROM information_schema.COLUMNS " +
+            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'files' AND COLUMN_NAME = 'data'", Integer.class);
+    return count != null && count > 0;
+  }
+}
@@ -0,0 +1,169 @@
+package com.upload_file.service;
+
+import com.upload_file.entity.FileContent;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Đọc/ghi blob trong file_contents trực tiếp qua JDBC, không materialize cả file vào heap.
+ * MySQL Connector/J luôn đọc hết giá trị của một cột vào bộ nhớ (Blob cũng vậy),
+ * nên việc cắt được đẩy xuống server bằng SUBSTRING, mỗi lần tối đa CHUNK_SIZE byte.
+ */
+@Component
+public class FileContentStore {
+
+  private static final int CHUNK_SIZE = 256 * 1024;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  /**
+   * Insert blob bằng setBinaryStream (không tạo byte[] cho cả file) và trả reference để gắn vào FileDB.
+   * Chạy trong transaction hiện tại nên rollback cùng bản ghi files.
+   */
+  @Transactional(propagation = Propagation.REQUIRED)
+  public FileContent insert(InputStream content, long length) {
+    String contentId = UUID.randomUUID().toString();
+    jdbcTemplate.update("INSERT INTO file_contents (id, data) VALUES (?, ?)", ps -> {
+      ps.setString(1, contentId);
+      ps.setBinaryStream(2, content, length);
+    });
+    return entityManager.getReference(FileContent.class, contentId);
+  }
+
+  /**
+   * Xóa blob khi không còn FileDB nào trỏ tới; flush trước để các lệnh xóa files đang chờ chạy trước (FK content_id)
+   */
+  @Transactional(propagation = Propagation.REQUIRED)
+  public void delete(String contentId) {
+    entityManager.flush();
+    jdbcTemplate.update("DELETE FROM file_contents WHERE id = ?", contentId);
+  }
+
+  /**
+   * Kích thước blob, null nếu không có nội dung
+   */
+  @Transactional(readOnly = true)
+  public Long getLength(String contentId) {
+    List<Long> lengths = jdbcTemplate.queryForList(
+        "SELECT LENGTH(data) FROM file_contents WHERE id = ?", Long.class, contentId);
+    return lengths.isEmpty() ? null : lengths.get(0);
+  }
+
+  /**
+   * Ghi vùng [start, start + length) của blob ra output; các chunk đọc trong cùng một transaction
+   */
+  @Transactional(readOnly = true)
+  public void copyRange(String contentId, long start, long length, OutputStream outputStream) throws IOException {
+    long position = start;
+    long end = start + length;
+    try {
+      while (position < end) {
+        int count = (int) Math.min(CHUNK_SIZE, end - position);
+        // SUBSTRING của MySQL đánh số từ 1
+        Long copied = jdbcTemplate.query("SELECT SUBSTRING(data, ?, ?) FROM file_contents WHERE id = ?",
+            rs -> rs.next() ? copy(rs.getBinaryStream(1), outputStream) : null,
+            position + 1, count, contentId);
+        if (copied == null || copied == 0) {
+          break;
+        }
+        position += copied;
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Stream đọc dần [start, start + length) theo từng chunk SUBSTRING - mỗi chunk là một query ngắn,
+   * không giữ connection trong lúc caller xử lý dữ liệu
+   */
+  public InputStream openRange(String contentId, long start, long length) {
+    return new ChunkedContentInputStream(contentId, start, start + length);
+  }
+
+  private byte[] readChunk(String contentId, long position, int count) {
+    List<byte[]> rows = jdbcTemplate.query("SELECT SUBSTRING(data, ?, ?) FROM file_contents WHERE id = ?",
+        (rs, rowNum) -> rs.getBytes(1), position + 1, count, contentId);
+    return rows.isEmpty() || rows.get(0) == null ? new byte[0] : rows.get(0);
+  }
+
+  private Long copy(InputStream inputStream, OutputStream outputStream) {
+    if (inputStream == null) {
+      return null;
+    }
+    try (inputStream) {
+      return inputStream.transferTo(outputStream);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private class ChunkedContentInputStream extends InputStream {
+    private final String contentId;
+    private final long end;
+    private long position;
+    private byte[] chunk = new byte[0];
+    private int offset;
+
+    private ChunkedContentInputStream(String contentId, long start, long end) {
+      this.contentId = contentId;
+      this.position = start;
+      this.end = end;
+    }
+
+    @Override
+    public int read() {
+      if (!fill()) {
+        return -1;
+      }
+      return chunk[offset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int count = Math.min(len, chunk.length - offset);
+      System.arraycopy(chunk, offset, buffer, off, count);
+      offset += count;
+      return count;
+    }
+
+    private boolean fill() {
+      if (offset < chunk.length) {
+        return true;
+      }
+      if (position >= end) {
+        return false;
+      }
+      chunk = readChunk(contentId, position, (int) Math.min(CHUNK_SIZE, end - position));
+      offset = 0;
+      if (chunk.length == 0) {
+        position = end; // hết blob sớm hơn length yêu cầu
+        return false;
+      }
+      position += chunk.length;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package com.upload_file.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Điền cột files.creation_time (millis dạng số) cho các bản ghi cũ chỉ có creation_date dạng chuỗi.
+ * Bản ghi có creation_time null sẽ không xuất hiện trong keyset pagination nên chạy khi khởi động, theo batch.
+ */
+@Component
+public class FileCreationTimeMigration {
+
+  private static final Logger logger = LoggerFactory.getLogger(FileCreationTimeMigration.class);
+  private static final int BATCH_SIZE = 1000;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void backfillCreationTime() {
+    int updated = 0;
+    int batch;
+    do {
+      // creation_date không phải số (dữ liệu lỗi) thì xếp lên đầu với 0
+      batch = jdbcTemplate.update(
+          "UPDATE files SET creation_time = IF(creation_date REGEXP '^[0-9]+$', CAST(creation_date AS UNSIGNED), 0) " +
+              "WHERE creation_time IS NULL LIMIT " + BATCH_SIZE);
+      updated += batch;
+    } while (batch == BATCH_SIZE);
+
+    if (updated > 0) {
+      logger.info("Filled creation_time for {} files", updated);
+    }
+  }
+}
@@ -1,12 +1,13 @@
 package com.upload_file.service;
 
-import com.upload_file.common.Constants;
 import com.upload_file.common.Constants.StorageLevel;
 import com.upload_file.common.UserIml;
-import com.upload_file.dto.OneDriveUploadResult;
 import com.upload_file.entity.FileDB;
 import com.upload_file.repository.FileDBRepository;
 import com.upload_file.service.abstract_file.AbstractFileService;
+import com.upload_file.service.storage.StorageBackend;
+import com.upload_file.service.storage.StorageBackends;
+import com.upload_file.service.storage.StorageCapability;
 import io.micrometer.core.annotation.Timed;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -33,7 +34,6 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -48,9 +48,6 @@ public class FileDBService extends AbstractFileService implements UserIml {
   @Autowired
   private FileStorageService fileStorageService;
 
-  @Autowired
-  private OneDriveService oneDriveService;
-
   @Autowired
   private PoiOfficeService poiOfficeService;
 
@@ -60,6 +57,21 @@ public class FileDBService extends AbstractFileService implements UserIml {
   @Autowired
   private StreamRangeService streamRangeService;
 
+  @Autowired
+  private ChunkMergeService chunkMergeService;
+
+  @Autowired
+  private ContentDedupService contentDedupService;
+
+  @Autowired
+  private StorageBackends storageBackends;
+
+  @Autowired
+  private OneDriveDiskCache oneDriveDiskCache;
+
+  @Autowired
+  private PhysicalFileService physicalFileService;
+
   private static final Logger logger = LoggerFactory.getLogger(FileDBService.class);
   private static final String systemProperty = System.getProperty("java.io.tmpdir");
 
@@ -129,12 +141,21 @@ public class FileDBService extends AbstractFileService implements UserIml {
 
       logger.info("Starting to store file: {} ({} bytes) by user: {}, contentType: {}", fileName, fileSize, currentUser, contentType);
 
-      // Đọc bytes một lần và reuse
-      byte[] fileBytes = file.getBytes();
       FileDB fileDB = new FileDB(fileName, fileSize, contentType, null, currentTimeCreate(), currentUser);
 
-      // Gọi đồng bộ thay vì async để tránh transaction issue
-      saveTypeFile(fileSize, fileDB, fileBytes);
+      // Multipart đã nằm sẵn ở local nên hash trước - file trùng chỉ cần lưu metadata
+      String contentHash;
+      try (InputStream content = file.getInputStream()) {
+        contentHash = contentDedupService.hash(content);
+      }
+      if (contentDedupService.attachExisting(fileDB, contentHash)) {
+        fileDBRepository.save(fileDB);
+      } else {
+        // Gọi đồng bộ thay vì async để tránh transaction issue
+        try (InputStream content = file.getInputStream()) {
+          saveTypeFile(fileSize, fileDB, content);
+        }
+      }
 
       logger.info("Successfully stored file: {} with size: {}MB by user: {}", fileName, fileSize / (1024.0 * 1024.0), currentUser);
 
@@ -145,43 +166,26 @@ public class FileDBService extends AbstractFileService implements UserIml {
   }
 
   @Transactional(propagation = Propagation.REQUIRED)
-  protected void saveTypeFile(long fileSize, FileDB fileDB, byte[] fileBytes) {
-    FileDB file = switch (checkStorageLevel(fileSize)) {
-      case DATABASE -> saveToDatabase(fileDB, fileBytes);
-      case SYSTEM -> saveToSystem(fileDB, fileBytes);
-      case ONEDRIVE -> saveToOneDrive(fileDB, fileBytes);
-    };
-    fileDBRepository.save(file);
-  }
-
-  private FileDB saveToDatabase(@NotNull FileDB fileDB, byte[] fileBytes) {
-    fileDB.setPath("(db)");
-    fileDB.setData(fileBytes); // Store data in DB for small files
-    logger.debug("File will be saved to database: {}", fileDB.getName());
-    return fileDB;
-  }
-
-  private FileDB saveToSystem(@NotNull FileDB fileDB, byte[] fileBytes) {
-    try {
-      saveToFilesystem(fileDB, fileBytes);
-      logger.debug("File will be saved to filesystem: {}", fileDB.getName());
-    } catch (IOException e) {
-      logger.error("Error saving file to filesystem: {}", e.getMessage(), e);
-    }
-    return fileDB;
+  protected void saveTypeFile(long fileSize, FileDB fileDB, InputStream content) throws IOException {
+    StorageBackend backend = storageBackends.forSize(fileSize);
+    backend.put(fileDB, content, fileSize);
+    logger.debug("File will be saved to {}: {}", backend.level(), fileDB.getName());
+    contentDedupService.register(fileDB);
+    fileDBRepository.save(fileDB);
   }
 
-  private FileDB saveToOneDrive(@NotNull FileDB fileDB, byte[] fileBytes) {
-    try {
-
-      OneDriveUploadResult result = oneDriveService.uploadLargeFile(fileDB.getName(), fileBytes);
-      fileDB.setOneDriveId(result.getId());
-      fileDB.setPath(result.getPath());
-      logger.debug("File will be saved to OneDrive: {}", fileDB.getName());
-    } catch (IOException e) {
-      logger.error("Error uploading file to OneDrive: {}", e.getMessage(), e);
+  @Transactional(propagation = Propagation.REQUIRED)
+  protected void saveTypeFile(long fileSize, FileDB fileDB, Path source) throws IOException {
+    if (contentDedupService.attachExisting(fileDB, contentDedupService.hash(source))) {
+      fileDBRepository.save(fileDB);
+      return;
     }
-    return fileDB;
+    // OneDrive upload thẳng từ file, các tầng khác đọc stream từ file
+    StorageBackend backend = storageBackends.forSize(fileSize);
+    backend.put(fileDB, source, fileSize);
+    logger.debug("File will be saved to {}: {}", backend.level(), fileDB.getName());
+    contentDedupService.register(fileDB);
+    fileDBRepository.save(fileDB);
   }
 
   @Timed(value = "file.store_multiple", description = "Time taken to store multiple files")
@@ -222,41 +226,10 @@ public class FileDBService extends AbstractFileService implements UserIml {
 
     FileDB file = optional.get();
     logger.info("Deleting file: {} (ID: {})", file.getName(), id);
-    long fileSize = file.getSize() != null ? file.getSize() : 0;
-    switch (checkStorageLevel(fileSize)) {
-      case SYSTEM -> removeFileSystem(file);
-      case ONEDRIVE -> removeFileOneDrive(file);
-    }
-
-    fileDBRepository.deleteById(id);
+    contentDedupService.deleteFile(file);
     logger.info("Successfully deleted file from database: {}", file.getName());
   }
 
-  @Timed(value = "file.delete_all", description = "Time taken to delete all files")
-  private void removeFileSystem(@NotNull FileDB file) {
-    try {
-      Path path = Paths.get(file.getPath());
-      if (Files.deleteIfExists(path)) {
-        logger.info("Deleted file from filesystem: {}", path);
-      }
-    } catch (IOException e) {
-      logger.error("Error deleting file from filesystem: {}", e.getMessage());
-    }
-  }
-
-  private void removeFileOneDrive(@NotNull FileDB file) {
-    try {
-      if (file.getOneDriveId() != null) {
-        oneDriveService.deleteFile(file.getOneDriveId(), file.getOneDriveId());
-        logger.info("Deleted file from OneDrive: {}", file.getName());
-      } else {
-        logger.warn("No OneDrive ID found for file: {}", file.getName());
-      }
-    } catch (IOException e) {
-      logger.error("Error deleting file from OneDrive: {}", e.getMessage(), e);
-    }
-  }
-
   @Async("taskExecutor")
   public CompletableFuture<Void> saveChunkAsync(String authHeader, MultipartFile file, String filename, int chunkIndex) {
     try {
@@ -303,8 +276,7 @@ public class FileDBService extends AbstractFileService implements UserIml {
     long fileSize = mergedFile.length();
     String currentUser = getCurrentUsername();
     FileDB fileDB = new FileDB(filename, fileSize, contentType, null, currentTimeCreate(), currentUser);
-    byte[] fileBytes = Files.readAllBytes(mergedFile.toPath());
-    saveTypeFile(fileSize, fileDB, fileBytes);
+    saveTypeFile(fileSize, fileDB, mergedFile.toPath());
     cleanup(dir, mergedFile);
     logger.info("Successfully merged and saved file: {}", filename);
   }
@@ -322,23 +294,7 @@ public class FileDBService extends AbstractFileService implements UserIml {
     File mergedFile = new File(systemProperty, username + "_merged_" + filename);
 //    File mergedFile = new File(systemProperty, "merged_" + filename);
 
-    try (FileOutputStream fos = new FileOutputStream(mergedFile)) {
-      for (int i = 0; i < totalChunks; i++) {
-        File chunkFile = new File(dir, String.format("chunk_%d", i));
-        if (!chunkFile.exists()) {
-          throw new IOException("Missing chunk " + i + " for file: " + filename);
-        }
-
-        try (FileInputStream fis = new FileInputStream(chunkFile)) {
-          byte[] buffer = new byte[8192];
-          int bytesRead;
-          while ((bytesRead = fis.read(buffer)) != -1) {
-            fos.write(buffer, 0, bytesRead);
-          }
-        }
-      }
-      fos.flush();
-    }
+    chunkMergeService.merge(dir, totalChunks, mergedFile);
     return mergedFile;
   }
 
@@ -380,17 +336,6 @@ public class FileDBService extends AbstractFileService implements UserIml {
     return systemProperty + "/chunks/" + username + "/" + filename;
   }
 
-  @Timed(value = "file.save_to_filesystem", description = "Time taken to save file to filesystem")
-  public void saveToFilesystem(FileDB fileDB, byte[] content) throws IOException {
-    if (!Files.exists(Constants.uploadDir)) {
-      Files.createDirectories(Constants.uploadDir);
-    }
-    Path filePath = generateUniqueFilePath(fileDB.getName());
-    fileDB.setPath(filePath.toString());
-    Files.write(filePath, content, StandardOpenOption.CREATE_NEW);
-    logger.debug("File saved to filesystem: {}", filePath);
-  }
-
   // ============= STREAMING METHODS =============
 
   public ResponseEntity<?> handlePreviewFile(String id,
@@ -422,14 +367,15 @@ public class FileDBService extends AbstractFileService implements UserIml {
       }
     }
 
-    // Original handling cho các trường hợp khác
-    return switch (storageLevel) {
-      case DATABASE -> handleDatabaseFile(fileDB, download);
-      case SYSTEM -> handleSystemFile(fileDB, request, response, download);
-      case ONEDRIVE -> handleOneDriveFile(fileDB, download, response, request);
-      default -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-          .body(Map.of("error", "Unknown storage level"));
-    };
+    // Chọn đường đọc theo capability của backend thay vì theo tầng
+    StorageBackend backend = storageBackends.forLevel(storageLevel);
+    if (backend.supports(StorageCapability.REMOTE)) {
+      return handleOneDriveFile(fileDB, download, response, request);
+    }
+    if (backend.supports(StorageCapability.ZERO_COPY)) {
+      return handleSystemFile(fileDB, request, response, download);
+    }
+    return handleDatabaseFile(fileDB, download);
   }
 
   @NotNull
@@ -456,12 +402,7 @@ public class FileDBService extends AbstractFileService implements UserIml {
 
   @Nullable
   private byte[] getFileDataByStorageLevel(FileDB fileDB, @NotNull StorageLevel storageLevel) throws Exception {
-    return switch (storageLevel) {
-      case DATABASE -> fileDB.getData();
-      case SYSTEM -> Files.readAllBytes(Paths.get(fileDB.getPath()));
-      case ONEDRIVE -> oneDriveService.downloadFile(fileDB.getName());
-      default -> null;
-    };
+    return physicalFileService.getFileData(fileDB, storageLevel);
   }
 
   private ResponseEntity<?> handleDatabaseFile(@NotNull FileDB fileDB,
@@ -479,10 +420,11 @@ public class FileDBService extends AbstractFileService implements UserIml {
       }
       fileData = Files.readAllBytes(filePath);
     } else {
-      fileData = fileDB.getData();
-      if (fileData == null) {
+      // Không dùng getData(): FileDB từ getFile đã detached, content chỉ là proxy - đọc qua FileContentStore theo content id
+      if (fileDB.getContent() == null) {
         return ResponseEntity.notFound().build();
       }
+      fileData = physicalFileService.getFileData(fileDB, StorageLevel.DATABASE);
     }
 
     return ResponseEntity.ok()
@@ -519,12 +461,18 @@ public class FileDBService extends AbstractFileService implements UserIml {
       MediaType mediaType = getMediaTypeForFile(fileName);
       String rangeHeader = request.getHeader("Range");
 
+      // File nóng đã có bản copy local thì không đi qua Graph
+      Path cached = oneDriveDiskCache.lookup(fileDB);
+      if (cached != null) {
+        return streamLocalCopy(cached, disposition, mediaType, rangeHeader, response);
+      }
+
       // Kiểm tra nếu là video file và có range request
       if (!download && isVideoFile(fileName) && rangeHeader != null) {
         return streamRangeService.streamVideoFromOneDriveWithRange(fileName, disposition, mediaType, rangeHeader, response, fileDB);
       }
 
-      return streamRangeService.streamFileFromOneDrive(fileName, disposition, mediaType, rangeHeader, response);
+      return streamRangeService.streamFileFromOneDrive(fileDB, disposition, mediaType, rangeHeader, response);
 
     } catch (Exception e) {
       logger.error("Failed to start OneDrive streaming for file: {} - {}", fileName, e.getMessage());
@@ -567,13 +515,6 @@ public class FileDBService extends AbstractFileService implements UserIml {
   }
 
   private StorageLevel determineStorageLevel(@NotNull FileDB fileDB) throws FileNotFoundException {
-    if (fileDB.getSize() == null) {
-      if (fileDB.getData() != null && fileDB.getData().length > 0) {
-        return StorageLevel.DATABASE;
-      } else {
-        throw new FileNotFoundException("File data not found");
-      }
-    }
-    return checkStorageLevel(fileDB.getSize());
+    return storageBackends.levelOf(fileDB);
   }
 }
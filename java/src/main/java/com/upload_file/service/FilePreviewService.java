@@ -53,6 +53,11 @@ public class FilePreviewService extends AbstractFileService {
 
       logger.info("Previewing file: {} (type: {}, download: {})", file.getName(), contentType, download);
 
+      // Client đã có bản này (If-None-Match / If-Modified-Since) - chỉ trả header
+      if (checkNotModified(file, request, response)) {
+        return ResponseEntity.status(response.getStatus()).build();
+      }
+
       // Nếu không phải download, xử lý preview đặc biệt
       if (!download) {
         ResponseEntity<?> previewResult = handleSpecialPreview(file, id, request, response);
@@ -1,13 +1,31 @@
 package com.upload_file.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.upload_file.dto.FileCursor;
+import com.upload_file.entity.FileContent;
 import com.upload_file.entity.FileDB;
+import com.upload_file.entity.User;
 import com.upload_file.repository.FileDBRepository;
 import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
 
 /**
  * Service chỉ chịu trách nhiệm CRUD operations với database
@@ -20,16 +38,55 @@ public class FileStorageService {
   @Autowired
   private FileDBRepository fileDBRepository;
 
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Value("${app.metadata.cache.max-entries:10000}")
+  private long metadataMaxEntries;
+
+  @Value("${app.metadata.cache.ttl-minutes:10}")
+  private long metadataTtlMinutes;
+
+  // Chỉ giữ metadata (không blob) - mỗi Range request của player không phải findById lại
+  private Cache<String, FileMetadata> metadataCache;
+
+  @PostConstruct
+  public void init() {
+    metadataCache = Caffeine.newBuilder()
+        .maximumSize(metadataMaxEntries)
+        .expireAfterWrite(Duration.ofMinutes(metadataTtlMinutes))
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, metadataCache, "file.metadata.cache");
+  }
+
   @Timed(value = "file.save", description = "Time taken to save file to database")
   public void save(FileDB fileDB) {
     fileDBRepository.save(fileDB);
+    evict(fileDB.getId());
   }
 
+  /**
+   * Metadata lấy từ cache; mỗi lần gọi trả một FileDB mới (không dùng chung instance giữa các request),
+   * content/user là reference lazy trong persistence context hiện tại.
+   * Cache miss đồng thời cho cùng id chỉ chạy một findById (Caffeine chạy loader một lần cho mỗi key).
+   * Lưu ý: FileDB trả về bị detached khi transaction này kết thúc nếu không có persistence context bao ngoài
+   * (open-in-view tắt, task nền) - khi đó chỉ dùng được getContent().getId()/getUser().getId();
+   * getData() hay field khác của user sẽ ném LazyInitializationException.
+   * Đọc nội dung qua StorageBackend/FileContentStore theo content id.
+   */
   @Timed(value = "file.get", description = "Time taken to get file by ID")
   @Transactional(readOnly = true)
   public FileDB getFile(String id) {
-    return fileDBRepository.findById(id)
-        .orElseThrow(() -> new RuntimeException("File not found with id: " + id));
+    FileMetadata metadata = metadataCache.get(id,
+        key -> fileDBRepository.findById(key).map(FileMetadata::of).orElse(null));
+    if (metadata == null) {
+      throw new RuntimeException("File not found with id: " + id);
+    }
+    return metadata.toEntity(entityManager);
   }
 
   @Timed(value = "file.get_all", description = "Time taken to get all files")
@@ -42,13 +99,82 @@ public class FileStorageService {
     }
   }
 
+  /**
+   * Trang tiếp theo sau cursor theo (creation_time, id) - lấy thêm một bản ghi để biết còn trang sau hay không
+   */
+  @Timed(value = "file.get_after", description = "Time taken to get files after cursor")
+  @Transactional(readOnly = true)
+  public List<FileDB> getFilesAfter(String search, FileCursor cursor, int size, String username, boolean isAdmin) {
+    Pageable limit = PageRequest.of(0, size + 1);
+    if (isAdmin) {
+      return fileDBRepository.findAllByNameAfter(search.trim(), cursor.creationTime(), cursor.id(), limit);
+    } else {
+      return fileDBRepository.findAllByNameAndUserAfter(search.trim(), username, cursor.creationTime(), cursor.id(), limit);
+    }
+  }
+
+  @Transactional(readOnly = true)
+  public long countFiles(String search, String username, boolean isAdmin) {
+    return fileDBRepository.countAllByNameAndUser(search.trim(), username, isAdmin);
+  }
+
   @Timed(value = "file.delete", description = "Time taken to delete file from database")
   public void deleteById(String id) {
     fileDBRepository.deleteById(id);
+    evict(id);
   }
 
   @Transactional(readOnly = true)
   public boolean existsById(String id) {
     return fileDBRepository.existsById(id);
   }
-}
\ No newline at end of file
+
+  /**
+   * Bỏ metadata khỏi cache ngay và một lần nữa sau commit - tránh request khác nạp lại bản cũ trước khi commit
+   */
+  public void evict(String id) {
+    if (id == null) {
+      return;
+    }
+    metadataCache.invalidate(id);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          metadataCache.invalidate(id);
+        }
+      });
+    }
+  }
+
+  private record FileMetadata(String id, String name, String path, String type, Long size, String creationDate,
+                              Long creationTime, String oneDriveId, String contentHash, String contentId, String userId,
+                              String uploadedBy) {
+
+    static FileMetadata of(@NotNull FileDB fileDB) {
+      // getId() trên proxy lazy không load blob/user
+      return new FileMetadata(fileDB.getId(), fileDB.getName(), fileDB.getPath(), fileDB.getType(), fileDB.getSize(),
+          fileDB.getCreationDate(), fileDB.getCreationTime(), fileDB.getOneDriveId(), fileDB.getContentHash(),
+          fileDB.getContent() != null ? fileDB.getContent().getId() : null,
+          fileDB.getUser() != null ? fileDB.getUser().getId() : null,
+          fileDB.getUploadedBy());
+    }
+
+    FileDB toEntity(EntityManager entityManager) {
+      FileDB fileDB = new FileDB();
+      fileDB.setId(id);
+      fileDB.setName(name);
+      fileDB.setPath(path);
+      fileDB.setType(type);
+      fileDB.setSize(size);
+      fileDB.setCreationDate(creationDate);
+      fileDB.setCreationTime(creationTime);
+      fileDB.setOneDriveId(oneDriveId);
+      fileDB.setContentHash(contentHash);
+      fileDB.setContent(contentId != null ? entityManager.getReference(FileContent.class, contentId) : null);
+      fileDB.setUser(userId != null ? entityManager.getReference(User.class, userId) : null);
+      fileDB.setUploadedBy(uploadedBy);
+      return fileDB;
+    }
+  }
+}
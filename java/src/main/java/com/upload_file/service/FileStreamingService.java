@@ -1,12 +1,13 @@
 package com.upload_file.service;
 
-import com.upload_file.common.Constants;
 import com.upload_file.entity.FileDB;
 import com.upload_file.service.abstract_file.AbstractStreamingService;
+import com.upload_file.service.storage.StorageBackend;
+import com.upload_file.service.storage.StorageBackends;
+import com.upload_file.service.storage.StorageCapability;
 import io.micrometer.core.annotation.Timed;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,10 +17,11 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
 import java.io.FileNotFoundException;
+import java.nio.file.Path;
 import java.util.Map;
 
 /**
- * Service điều phối streaming dựa trên storage level - Sử dụng logic cũ đã hoạt động ổn định
+ * Service điều phối streaming theo capability của StorageBackend đang giữ file
  */
 @Service
 public class FileStreamingService extends AbstractStreamingService {
@@ -32,6 +34,9 @@ public class FileStreamingService extends AbstractStreamingService {
   @Autowired
   private DatabaseStreamingService databaseStreaming;
 
+  @Autowired
+  private StorageBackends storageBackends;
+
   @Autowired
   private FileSystemStreamingService fileSystemStreaming;
 
@@ -42,7 +47,7 @@ public class FileStreamingService extends AbstractStreamingService {
   private PhysicalFileService physicalFileService;
 
   /**
-   * Main streaming method - Điều phối dựa trên storage level
+   * Main streaming method - Điều phối theo capability của backend
    */
   @Timed(value = "file.stream", description = "Time taken to stream file")
   public ResponseEntity<?> streamFile(String id, HttpHeaders headers,
@@ -52,17 +57,27 @@ public class FileStreamingService extends AbstractStreamingService {
       FileDB file = fileStorageService.getFile(id);
       setCommonStreamingHeaders(response, file.getType(), file.getName(), false);
 
-      // Sử dụng logic cũ để determine storage level
-      Constants.StorageLevel level = determineStorageLevel(file);
+      String rangeHeader = headers.getFirst(HttpHeaders.RANGE) != null
+          ? headers.getFirst(HttpHeaders.RANGE) : request.getHeader(HttpHeaders.RANGE);
+      if (rangeHeader != null && !isIfRangeSatisfied(file, request)) {
+        // If-Range không khớp - bản client đang có đã cũ, trả cả file thay vì ghép range
+        rangeHeader = null;
+      }
+      HttpHeaders rangeHeaders = new HttpHeaders();
+      if (rangeHeader != null) {
+        rangeHeaders.set(HttpHeaders.RANGE, rangeHeader);
+      }
 
-      // COPY nguyên logic switch từ code cũ
-      return switch (level) {
-        case DATABASE -> databaseStreaming.stream(file, headers, response);
-        case SYSTEM -> fileSystemStreaming.stream(file, headers, response);
-        case ONEDRIVE -> oneDriveStreaming.stream(file, request, response);
-        default -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-            .body(Map.of("error", "Unknown storage level"));
-      };
+      StorageBackend backend = storageBackends.forFile(file);
+      if (backend.supports(StorageCapability.REMOTE)) {
+        // Đọc theo segment, tự dùng bản copy trong disk cache nếu có
+        return oneDriveStreaming.stream(file, rangeHeader, response);
+      }
+      Path localPath = backend.supports(StorageCapability.ZERO_COPY) ? backend.localPath(file) : null;
+      if (localPath != null) {
+        return fileSystemStreaming.stream(localPath, rangeHeaders, response);
+      }
+      return databaseStreaming.stream(file, rangeHeaders, response);
 
     } catch (FileNotFoundException e) {
       logger.error("File not found: {}", e.getMessage());
@@ -78,18 +93,4 @@ public class FileStreamingService extends AbstractStreamingService {
           .body(Map.of("error", "Lỗi server"));
     }
   }
-
-  /**
-   * Xác định storage level - COPY từ FileDBService.determineStorageLevel() cũ
-   */
-  private Constants.StorageLevel determineStorageLevel(@NotNull FileDB fileDB) throws FileNotFoundException {
-    if (fileDB.getSize() == null) {
-      if (fileDB.getData() != null && fileDB.getData().length > 0) {
-        return Constants.StorageLevel.DATABASE;
-      } else {
-        throw new FileNotFoundException("File data not found");
-      }
-    }
-    return checkStorageLevel(fileDB.getSize());
-  }
 }
\ No newline at end of file
@@ -1,14 +1,16 @@
 package com.upload_file.service;
 
-import com.upload_file.common.Constants;
 import com.upload_file.common.UserIml;
 import com.upload_file.entity.FileDB;
 import com.upload_file.service.abstract_file.AbstractFileService;
+import com.upload_file.service.storage.StorageBackend;
+import com.upload_file.service.storage.StorageBackends;
 import io.micrometer.core.annotation.Timed;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -16,6 +18,10 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
 import java.util.Objects;
 
 /**
@@ -31,7 +37,14 @@ public class FileUploadService extends AbstractFileService implements UserIml {
   private FileStorageService fileStorageService;
 
   @Autowired
-  private PhysicalFileService physicalFileService;
+  private StorageBackends storageBackends;
+
+  @Autowired
+  private ContentDedupService contentDedupService;
+
+  // Hash do client gửi không chứng minh client có nội dung - mặc định chỉ dùng lại file của chính user
+  @Value("${app.upload.instant.any-owner:false}")
+  private boolean instantUploadAnyOwner;
 
   /**
    * Upload single file
@@ -47,17 +60,70 @@ public class FileUploadService extends AbstractFileService implements UserIml {
     logger.info("Starting to store file: {} ({} bytes) by user: {}, contentType: {}",
         fileName, fileSize, currentUser, contentType);
 
-    // Đọc bytes một lần và reuse
-    byte[] fileBytes = file.getBytes();
     FileDB fileDB = new FileDB(fileName, fileSize, contentType, null, currentTimeCreate(), currentUser);
 
-    // Xử lý lưu trữ theo storage level
-    processFileStorage(fileSize, fileDB, fileBytes);
+    // Hash trước rồi mới lưu, cho mọi tầng: multipart đã nằm sẵn ở local (RAM nếu <= file-size-threshold 50MB,
+    // file tạm nếu lớn hơn) nên lần đọc thứ hai rẻ, còn file trùng thì không phải ghi gì xuống storage.
+    // Hash trong lúc ghi (DigestInputStream) thì chỉ biết trùng sau khi đã ghi xong - phải ghi rồi xóa lại.
+    String contentHash;
+    try (InputStream content = file.getInputStream()) {
+      contentHash = contentDedupService.hash(content);
+    }
+    if (contentDedupService.attachExisting(fileDB, contentHash)) {
+      fileStorageService.save(fileDB);
+    } else {
+      // Stream nội dung thẳng xuống storage, không đọc cả file vào heap
+      try (InputStream content = file.getInputStream()) {
+        processFileStorage(fileSize, fileDB, content);
+      }
+    }
 
     logger.info("Successfully stored file: {} with size: {}MB by user: {}",
         fileName, fileSize / (1024.0 * 1024.0), currentUser);
   }
 
+  /**
+   * Upload file đã có sẵn trên disk (vd: file merge từ chunks)
+   */
+  @Timed(value = "file.upload_from_path", description = "Time taken to upload file from local path")
+  @Transactional(propagation = Propagation.REQUIRED, timeout = 300)
+  public void uploadFromPath(@NotNull Path source, String filename, String contentType) throws IOException {
+    String fileName = StringUtils.cleanPath(Objects.requireNonNull(filename));
+    long fileSize = Files.size(source);
+    String currentUser = getCurrentUsername();
+
+    logger.info("Starting to store file from path: {} ({} bytes) by user: {}, contentType: {}",
+        fileName, fileSize, currentUser, contentType);
+
+    FileDB fileDB = new FileDB(fileName, fileSize, contentType, null, currentTimeCreate(), currentUser);
+    processFileStorage(fileSize, fileDB, source);
+
+    logger.info("Successfully stored file: {} with size: {}MB by user: {}",
+        fileName, fileSize / (1024.0 * 1024.0), currentUser);
+  }
+
+  /**
+   * Instant upload: client gửi tên, size và SHA-256 trước khi upload.
+   * Nếu server đã có nội dung đó thì tạo FileDB ngay, trả null nếu client vẫn phải gửi bytes.
+   */
+  @Timed(value = "file.upload_instant", description = "Time taken to check instant upload")
+  @Transactional(propagation = Propagation.REQUIRED, timeout = 60)
+  public FileDB tryInstantUpload(String filename, long fileSize, String contentHash, String contentType) {
+    String fileName = StringUtils.cleanPath(Objects.requireNonNull(filename));
+    String currentUser = getCurrentUsername();
+
+    FileDB fileDB = new FileDB(fileName, fileSize, contentType, null, currentTimeCreate(), currentUser);
+    String owner = instantUploadAnyOwner ? null : currentUser;
+    if (!contentDedupService.attachExisting(fileDB, contentHash.toLowerCase(Locale.ROOT), owner)) {
+      logger.debug("No stored content for instant upload of {} ({} bytes)", fileName, fileSize);
+      return null;
+    }
+
+    fileStorageService.save(fileDB);
+    logger.info("Instant upload of {} ({} bytes) by user: {} - transfer skipped", fileName, fileSize, currentUser);
+    return fileDB;
+  }
+
   /**
    * Upload multiple files
    */
@@ -77,15 +143,26 @@ public class FileUploadService extends AbstractFileService implements UserIml {
   /**
    * Xử lý lưu trữ file theo storage level
    */
-  private void processFileStorage(long fileSize, FileDB fileDB, byte[] fileBytes) throws IOException {
-    Constants.StorageLevel level = checkStorageLevel(fileSize);
+  private void processFileStorage(long fileSize, FileDB fileDB, InputStream content) throws IOException {
+    StorageBackend backend = storageBackends.forSize(fileSize);
+    backend.put(fileDB, content, fileSize);
+    logger.debug("File will be saved to {}: {}", backend.level(), fileDB.getName());
+    contentDedupService.register(fileDB);
+    fileStorageService.save(fileDB);
+  }
 
-    switch (level) {
-      case DATABASE -> physicalFileService.saveToDatabase(fileDB, fileBytes);
-      case SYSTEM -> physicalFileService.saveToFileSystem(fileDB, fileBytes);
-      case ONEDRIVE -> physicalFileService.saveToOneDrive(fileDB, fileBytes);
+  /**
+   * Xử lý lưu trữ từ file trên disk - OneDrive đọc thẳng từ file, không cần spool lại
+   */
+  private void processFileStorage(long fileSize, FileDB fileDB, Path source) throws IOException {
+    if (contentDedupService.attachExisting(fileDB, contentDedupService.hash(source))) {
+      fileStorageService.save(fileDB);
+      return;
     }
-    logger.debug("File will be saved to {}: {}", level, fileDB.getName());
+    StorageBackend backend = storageBackends.forSize(fileSize);
+    backend.put(fileDB, source, fileSize);
+    logger.debug("File will be saved to {}: {}", backend.level(), fileDB.getName());
+    contentDedupService.register(fileDB);
     fileStorageService.save(fileDB);
   }
 
@@ -97,25 +174,7 @@ public class FileUploadService extends AbstractFileService implements UserIml {
   public void deleteFile(String id) {
     FileDB fileDB = fileStorageService.getFile(id);
     logger.info("Deleting file: {} (ID: {})", fileDB.getName(), id);
-
-    // Xóa physical file
-    deletePhysicalFile(fileDB);
-
-    // Xóa metadata từ database
-    fileStorageService.deleteById(id);
+    contentDedupService.deleteFile(fileDB);
     logger.info("Successfully deleted file: {}", fileDB.getName());
   }
-
-  /**
-   * Xóa physical file theo storage level
-   */
-  private void deletePhysicalFile(FileDB fileDB) {
-    Constants.StorageLevel level = physicalFileService.determineStorageLevel(fileDB);
-
-    switch (level) {
-      case SYSTEM -> physicalFileService.deleteFromFileSystem(fileDB.getPath());
-      case ONEDRIVE -> physicalFileService.deleteFromOneDrive(fileDB.getName(), fileDB.getOneDriveId());
-      case DATABASE -> logger.debug("File stored in database, no physical file to delete");
-    }
-  }
 }
\ No newline at end of file
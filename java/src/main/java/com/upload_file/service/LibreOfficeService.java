@@ -6,7 +6,6 @@ import com.upload_file.service.abstract_file.AbstractFileService;
 import com.upload_file.util.LibreOfficeDebugHelper;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.AllArgsConstructor;
@@ -43,6 +42,9 @@ public class LibreOfficeService extends AbstractFileService {
   @Autowired
   private LibreOfficeDebugHelper debugHelper;
 
+  @Autowired
+  private SingleFlight singleFlight;
+
   @Value("${app.converted.directory:D:/converted_files}")
   private String convertedDirectory;
 
@@ -434,8 +436,11 @@ public class LibreOfficeService extends AbstractFileService {
       // Kiểm tra cache
       Path pdfPath = getCachedPDFPath(cacheKey);
       if (pdfPath == null) {
-        // Chuyển đổi mới
-        pdfPath = convertToPDF(fileId, fileName, fileData, cacheKey);
+        // Chuyển đổi mới - request đồng thời cho cùng file chờ chung một lần convert
+        pdfPath = singleFlight.execute(SingleFlight.Operation.CONVERSION, cacheKey, () -> {
+          Path converted = getCachedPDFPath(cacheKey);
+          return converted != null ? converted : convertToPDF(fileId, fileName, fileData, cacheKey);
+        });
         if (pdfPath == null) {
           throw new ConversionException(fileName, ConversionException.ConversionErrorType.CONVERSION_FAILED);
         }
@@ -588,7 +593,6 @@ public class LibreOfficeService extends AbstractFileService {
         return ResponseEntity.notFound().build();
       }
 
-      long fileSize = Files.size(pdfPath);
       String pdfFileName = sanitizeFileName(originalFileName) + ".pdf";
 
       // Set headers
@@ -599,13 +603,8 @@ public class LibreOfficeService extends AbstractFileService {
       response.setHeader("Cache-Control", "public, max-age=3600");
       response.setContentType(MediaType.APPLICATION_PDF_VALUE);
 
-      // Handle Range requests
-      String rangeHeader = request.getHeader("Range");
-      if (rangeHeader != null && rangeHeader.startsWith("bytes=")) {
-        return handleRangeRequest(pdfPath, rangeHeader, response, fileSize);
-      } else {
-        return streamFullFile(pdfPath, response, fileSize);
-      }
+      // Range (kể cả nhiều range cho PDF viewer tải theo trang) xử lý chung ở AbstractFileService
+      return handleRangeRequest(pdfPath, request.getHeader("Range"), response);
 
     } catch (Exception e) {
       logger.error("Error streaming PDF file {}: {}", pdfPath, e.getMessage(), e);
@@ -618,139 +617,6 @@ public class LibreOfficeService extends AbstractFileService {
     }
   }
 
-  private ResponseEntity<?> handleRangeRequest(Path pdfPath, String rangeHeader,
-                                               HttpServletResponse response, long fileSize) {
-    try {
-      // Parse range header: bytes=start-end
-      String range = rangeHeader.substring(6);
-      String[] parts = range.split("-");
-
-      long start = 0;
-      long end = fileSize - 1;
-
-      if (parts.length >= 1 && !parts[0].isEmpty()) {
-        start = Long.parseLong(parts[0]);
-      }
-
-      if (parts.length >= 2 && !parts[1].isEmpty()) {
-        end = Long.parseLong(parts[1]);
-      }
-
-      // Validate range
-      if (start > end || start < 0 || end >= fileSize) {
-        response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
-        response.setHeader("Content-Range", "bytes */" + fileSize);
-        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).build();
-      }
-
-      long contentLength = end - start + 1;
-
-      // Set partial content headers
-      response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
-      response.setHeader("Content-Range", String.format("bytes %d-%d/%d", start, end, fileSize));
-      response.setHeader("Content-Length", String.valueOf(contentLength));
-
-      // Stream partial content
-      return streamPartialContent(pdfPath, start, contentLength, response);
-
-    } catch (Exception e) {
-      logger.error("Error handling range request: {}", e.getMessage(), e);
-      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-    }
-  }
-
-  private ResponseEntity<?> streamPartialContent(Path pdfPath, long start, long contentLength,
-                                                 HttpServletResponse response) {
-    try (RandomAccessFile file = new RandomAccessFile(pdfPath.toFile(), "r");
-         ServletOutputStream outputStream = response.getOutputStream()) {
-
-      file.seek(start);
-
-      byte[] buffer = new byte[Constants.STREAM_BUFFER_SIZE];
-      long remaining = contentLength;
-
-      while (remaining > 0) {
-        int bytesToRead = (int) Math.min(buffer.length, remaining);
-        int bytesRead = file.read(buffer, 0, bytesToRead);
-
-        if (bytesRead == -1) {
-          break;
-        }
-
-        try {
-          outputStream.write(buffer, 0, bytesRead);
-          remaining -= bytesRead;
-
-          // Periodic flush
-          if ((contentLength - remaining) % Constants.FLUSH_INTERVAL == 0) {
-            outputStream.flush();
-          }
-        } catch (IOException e) {
-          if (isClientDisconnected(e)) {
-            logger.debug("Client disconnected during partial content streaming");
-            break;
-          }
-          throw e;
-        }
-      }
-
-      if (!response.isCommitted()) {
-        outputStream.flush();
-      }
-
-      return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).build();
-
-    } catch (Exception e) {
-      if (isClientDisconnected(e)) {
-        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
-      }
-      throw new RuntimeException("Error streaming partial content", e);
-    }
-  }
-
-  private ResponseEntity<?> streamFullFile(Path pdfPath, HttpServletResponse response, long fileSize) {
-    try (InputStream inputStream = Files.newInputStream(pdfPath);
-         BufferedInputStream bufferedInput = new BufferedInputStream(inputStream, Constants.STREAM_BUFFER_SIZE);
-         ServletOutputStream outputStream = response.getOutputStream()) {
-
-      response.setHeader("Content-Length", String.valueOf(fileSize));
-
-      byte[] buffer = new byte[Constants.STREAM_BUFFER_SIZE];
-      int bytesRead;
-      long totalBytesRead = 0;
-
-      while ((bytesRead = bufferedInput.read(buffer)) != -1) {
-        try {
-          outputStream.write(buffer, 0, bytesRead);
-          totalBytesRead += bytesRead;
-
-          // Periodic flush
-          if (totalBytesRead % Constants.FLUSH_INTERVAL == 0) {
-            outputStream.flush();
-          }
-        } catch (IOException e) {
-          if (isClientDisconnected(e)) {
-            logger.debug("Client disconnected during full file streaming");
-            break;
-          }
-          throw e;
-        }
-      }
-
-      if (!response.isCommitted()) {
-        outputStream.flush();
-      }
-
-      return ResponseEntity.ok().build();
-
-    } catch (Exception e) {
-      if (isClientDisconnected(e)) {
-        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
-      }
-      throw new RuntimeException("Error streaming full file", e);
-    }
-  }
-
   private String generateCacheKey(String fileId, String fileName, long fileSize) {
     return String.format("%s_%s_%d", fileId, sanitizeFileName(fileName), fileSize);
   }
@@ -0,0 +1,143 @@
+package com.upload_file.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.servlet.ServletOutputStream;
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+
+/**
+ * Cache các đoạn file đã mmap (cửa sổ cố định, mặc định 8MB) cho file hay được seek (video).
+ * LRU theo tổng số byte đã map; key gồm cả size + lastModified nên file bị ghi đè sẽ map lại.
+ * Lưu ý: vùng map chỉ được unmap khi buffer bị GC thu hồi sau khi rời cache. Trên Windows file đang được map
+ * không xóa/ghi đè được, nên mặc định (enabled=auto) tắt mmap trên Windows và đọc thẳng bằng FileChannel.transferTo.
+ */
+@Component
+public class MappedSegmentCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(MappedSegmentCache.class);
+
+  private final boolean enabled;
+  private final long segmentSize;
+  private final Cache<SegmentKey, MappedByteBuffer> segments;
+
+  public MappedSegmentCache(MeterRegistry meterRegistry,
+                            @Value("${app.stream.mmap.enabled:auto}") String enabled,
+                            @Value("${app.stream.mmap.segment-size-mb:8}") long segmentSizeMb,
+                            @Value("${app.stream.mmap.max-size-mb:512}") long maxSizeMb) {
+    this.enabled = "auto".equalsIgnoreCase(enabled)
+        ? !System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows")
+        : Boolean.parseBoolean(enabled);
+    if (!this.enabled) {
+      logger.info("mmap streaming disabled, using FileChannel.transferTo");
+    }
+    this.segmentSize = segmentSizeMb * 1024 * 1024;
+    this.segments = Caffeine.newBuilder()
+        .maximumWeight(maxSizeMb * 1024 * 1024)
+        .weigher((SegmentKey key, MappedByteBuffer buffer) -> buffer.capacity())
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, segments, "file.mmap.segments");
+  }
+
+  /**
+   * Ghi vùng [start, start + length) của file ra output, đọc từ các segment đã map
+   */
+  public void transfer(Path path, long start, long length, ServletOutputStream outputStream) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    long fileSize = attributes.size();
+    long lastModified = attributes.lastModifiedTime().toMillis();
+    long end = Math.min(start + length, fileSize);
+
+    if (!enabled) {
+      transferUnmapped(path, start, end, outputStream);
+      return;
+    }
+
+    // Tomcat nhận ByteBuffer trực tiếp; output khác thì bọc qua channel
+    WritableByteChannel channel = outputStream instanceof CoyoteOutputStream ? null : Channels.newChannel(outputStream);
+
+    long position = start;
+    while (position < end) {
+      long index = position / segmentSize;
+      MappedByteBuffer segment = getSegment(new SegmentKey(path, fileSize, lastModified, index));
+
+      int offset = (int) (position - index * segmentSize);
+      int count = (int) Math.min(segment.capacity() - offset, end - position);
+      ByteBuffer slice = segment.slice(offset, count);
+
+      if (channel == null) {
+        ((CoyoteOutputStream) outputStream).write(slice);
+      } else {
+        while (slice.hasRemaining()) {
+          channel.write(slice);
+        }
+      }
+      position += count;
+    }
+  }
+
+  /**
+   * Không map - channel đóng ngay sau khi gửi nên file xóa được ngay (Windows)
+   */
+  private void transferUnmapped(Path path, long start, long end, ServletOutputStream outputStream) throws IOException {
+    // Không đóng target - đóng nó sẽ đóng luôn response output stream
+    WritableByteChannel target = Channels.newChannel(outputStream);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long position = start;
+      while (position < end) {
+        long sent = channel.transferTo(position, end - position, target);
+        if (sent <= 0) {
+          throw new EOFException("File " + path + " ended at " + position + ", expected " + end);
+        }
+        position += sent;
+      }
+    }
+  }
+
+  public void evict(Path path) {
+    segments.asMap().keySet().removeIf(key -> key.path().equals(path));
+  }
+
+  private MappedByteBuffer getSegment(SegmentKey key) throws IOException {
+    try {
+      return segments.get(key, this::map);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private MappedByteBuffer map(SegmentKey key) {
+    long offset = key.index() * segmentSize;
+    long size = Math.min(segmentSize, key.fileSize() - offset);
+    // Mapping vẫn dùng được sau khi đóng channel
+    try (FileChannel channel = FileChannel.open(key.path(), StandardOpenOption.READ)) {
+      logger.debug("Mapping segment {} of {} ({} bytes)", key.index(), key.path(), size);
+      return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private record SegmentKey(Path path, long fileSize, long lastModified, long index) {
+  }
+}
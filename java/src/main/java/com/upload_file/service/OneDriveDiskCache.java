@@ -0,0 +1,223 @@
+package com.upload_file.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.upload_file.entity.FileDB;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache trên disk local cho file OneDrive hay được xem.
+ * Lần truy cập đầu chỉ lên lịch tải nền, các lần sau phục vụ từ disk (sendfile/mmap như tầng SYSTEM).
+ * Giới hạn theo tổng dung lượng, Caffeine (W-TinyLFU) chọn file bị loại.
+ * eTag được hỏi lại OneDrive (không qua cache download link, sống tới download-url-ttl-minutes)
+ * khi lần kiểm tra trước đã quá revalidate-seconds - bản local cũ chỉ có thể được phục vụ trong khoảng đó.
+ */
+@Component
+public class OneDriveDiskCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(OneDriveDiskCache.class);
+  // Chỉ file do cache tạo ra mới mang các tên này - thư mục cấu hình có thể chứa file khác
+  private static final String PART_PREFIX = "fill-";
+  private static final String PART_SUFFIX = ".part";
+  private static final String CACHED_SUFFIX = ".odcache";
+
+  @Value("${app.onedrive.cache.enabled:true}")
+  private boolean enabled;
+
+  @Value("${app.onedrive.cache.dir:${java.io.tmpdir}/onedrive-cache}")
+  private String cacheDirectory;
+
+  @Value("${app.onedrive.cache.max-size-mb:2048}")
+  private long maxSizeMb;
+
+  @Value("${app.onedrive.cache.max-object-mb:512}")
+  private long maxObjectMb;
+
+  @Value("${app.onedrive.cache.revalidate-seconds:60}")
+  private long revalidateSeconds;
+
+  @Autowired
+  private OneDriveService oneDriveService;
+
+  @Autowired
+  private MappedSegmentCache mappedSegmentCache;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  @Qualifier("fileTaskExecutor")
+  private TaskExecutor fileTaskExecutor;
+
+  private Path cacheDir;
+  private Cache<String, CachedObject> entries;
+  private final Set<String> loading = ConcurrentHashMap.newKeySet();
+
+  @PostConstruct
+  public void init() throws IOException {
+    cacheDir = Paths.get(cacheDirectory);
+    // Index chỉ nằm trong bộ nhớ - file còn sót từ lần chạy trước không kiểm chứng được nên xóa
+    if (Files.exists(cacheDir)) {
+      deleteLeftovers();
+    } else {
+      Files.createDirectories(cacheDir);
+    }
+
+    entries = Caffeine.newBuilder()
+        .maximumWeight(maxSizeMb * 1024 * 1024)
+        .weigher((String key, CachedObject cached) -> (int) Math.min(cached.size(), Integer.MAX_VALUE))
+        .removalListener((String key, CachedObject cached, RemovalCause cause) -> {
+          if (cached != null) {
+            deleteQuietly(cached.path());
+          }
+        })
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, entries, "onedrive.disk.cache");
+  }
+
+  /**
+   * File local còn khớp eTag với OneDrive, null nếu chưa có (khi đó lên lịch tải nền)
+   */
+  public Path lookup(@NotNull FileDB fileDB) {
+    String oneDriveId = fileDB.getOneDriveId();
+    if (!enabled || oneDriveId == null) {
+      return null;
+    }
+
+    CachedObject cached = entries.getIfPresent(oneDriveId);
+    if (cached == null) {
+      schedule(fileDB);
+      return null;
+    }
+
+    if (!Files.exists(cached.path())) {
+      entries.invalidate(oneDriveId);
+      schedule(fileDB);
+      return null;
+    }
+
+    long now = System.currentTimeMillis();
+    long validatedAt = cached.validatedAt().get();
+    if (now - validatedAt < revalidateSeconds * 1000) {
+      return cached.path();
+    }
+    try {
+      String eTag = oneDriveService.refreshETag(oneDriveId, fileDB.getName());
+      if (!Objects.equals(eTag, cached.eTag())) {
+        logger.debug("Cached copy of {} is stale, reloading", fileDB.getName());
+        entries.invalidate(oneDriveId);
+        schedule(fileDB);
+        return null;
+      }
+      cached.validatedAt().compareAndSet(validatedAt, now);
+    } catch (IOException e) {
+      logger.warn("Could not validate cached copy of {}: {}", fileDB.getName(), e.getMessage());
+      return null;
+    }
+    return cached.path();
+  }
+
+  public void invalidate(String oneDriveId) {
+    if (oneDriveId != null && entries != null) {
+      entries.invalidate(oneDriveId);
+    }
+  }
+
+  private void schedule(@NotNull FileDB fileDB) {
+    Long size = fileDB.getSize();
+    if (size == null || size > maxObjectMb * 1024 * 1024) {
+      return;
+    }
+
+    String oneDriveId = fileDB.getOneDriveId();
+    if (!loading.add(oneDriveId)) {
+      return;
+    }
+    try {
+      fileTaskExecutor.execute(() -> {
+        try {
+          load(oneDriveId, fileDB.getName());
+        } finally {
+          loading.remove(oneDriveId);
+        }
+      });
+    } catch (TaskRejectedException e) {
+      loading.remove(oneDriveId);
+      logger.debug("Executor busy, skipping cache fill for {}", fileDB.getName());
+    }
+  }
+
+  private void load(String oneDriveId, String fileName) {
+    Path partFile = null;
+    try {
+      // eTag mới nhất, không lấy từ download link đã cache
+      String eTag = oneDriveService.refreshETag(oneDriveId, fileName);
+      partFile = Files.createTempFile(cacheDir, PART_PREFIX, PART_SUFFIX);
+      try (InputStream content = oneDriveService.streamFileWithRange(oneDriveId, fileName, null)) {
+        Files.copy(content, partFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+
+      // Mỗi bản tải có tên riêng: bản cũ có thể vẫn đang được stream khi bị thay
+      Path target = cacheDir.resolve(
+          oneDriveId.replaceAll("[^A-Za-z0-9_-]", "_") + "-" + System.nanoTime() + CACHED_SUFFIX);
+      Files.move(partFile, target, StandardCopyOption.ATOMIC_MOVE);
+      entries.put(oneDriveId, new CachedObject(target, eTag, Files.size(target),
+          new AtomicLong(System.currentTimeMillis())));
+      logger.debug("Cached OneDrive file {} at {}", fileName, target);
+    } catch (IOException e) {
+      logger.warn("Failed to cache OneDrive file {}: {}", fileName, e.getMessage());
+      if (partFile != null) {
+        deleteQuietly(partFile);
+      }
+    }
+  }
+
+  private void deleteLeftovers() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(cacheDir, file -> {
+      String name = file.getFileName().toString();
+      return Files.isRegularFile(file)
+          && (name.endsWith(CACHED_SUFFIX) || (name.startsWith(PART_PREFIX) && name.endsWith(PART_SUFFIX)));
+    })) {
+      for (Path file : files) {
+        deleteQuietly(file);
+      }
+    }
+  }
+
+  private void deleteQuietly(Path path) {
+    try {
+      mappedSegmentCache.evict(path);
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      logger.debug("Could not delete cached file {}: {}", path, e.getMessage());
+    }
+  }
+
+  private record CachedObject(Path path, String eTag, long size, AtomicLong validatedAt) {
+  }
+}
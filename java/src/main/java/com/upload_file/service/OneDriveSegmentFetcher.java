@@ -0,0 +1,198 @@
+package com.upload_file.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.upload_file.entity.FileDB;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Đọc file OneDrive theo segment cố định (căn theo segment-size) thay vì mở một stream Graph cho mỗi request.
+ * Các viewer cùng xem một file dùng chung segment đang tải (single-flight qua AsyncCache),
+ * N segment tiếp theo được tải trước trong lúc segment hiện tại đang stream.
+ * Segment gần đây giữ trong bộ nhớ, giới hạn theo tổng số byte.
+ */
+@Component
+public class OneDriveSegmentFetcher {
+
+  private static final Logger logger = LoggerFactory.getLogger(OneDriveSegmentFetcher.class);
+
+  @Value("${app.onedrive.segment.size-mb:4}")
+  private int segmentSizeMb;
+
+  @Value("${app.onedrive.segment.read-ahead:2}")
+  private int readAhead;
+
+  @Value("${app.onedrive.segment.cache-max-mb:256}")
+  private long cacheMaxMb;
+
+  @Autowired
+  private OneDriveService oneDriveService;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  @Qualifier("segmentFetchExecutor")
+  private TaskExecutor segmentFetchExecutor;
+
+  private long segmentSize;
+  private AsyncCache<SegmentKey, byte[]> segments;
+
+  @PostConstruct
+  public void init() {
+    segmentSize = segmentSizeMb * 1024L * 1024L;
+    // Future đang chạy cũng nằm trong cache nên request thứ hai cho cùng segment chỉ chờ, không gọi Graph lần nữa;
+    // future lỗi tự bị bỏ khỏi cache
+    segments = Caffeine.newBuilder()
+        .maximumWeight(cacheMaxMb * 1024 * 1024)
+        .weigher((SegmentKey key, byte[] data) -> data.length)
+        .recordStats()
+        .buildAsync();
+    CaffeineCacheMetrics.monitor(meterRegistry, segments.synchronous(), "onedrive.segment.cache");
+  }
+
+  public long getSegmentSize() {
+    return segmentSize;
+  }
+
+  /**
+   * Stream vùng [start, start + length) của file, đọc qua cache segment và tải trước các segment phía sau.
+   * eTag do caller truyền vào (ETag của FileDB) nằm trong key: nội dung khác thì segment cũ không còn được dùng,
+   * và không phải hỏi Graph cho mỗi Range request
+   */
+  public InputStream openRange(@NotNull FileDB fileDB, String eTag, long fileSize, long start, long length) {
+    String itemKey = fileDB.getOneDriveId() != null ? fileDB.getOneDriveId() : fileDB.getName();
+    return new SegmentInputStream(fileDB, itemKey + "|" + eTag, fileSize, start, start + length);
+  }
+
+  private CompletableFuture<byte[]> segment(FileDB fileDB, String itemKey, long fileSize, long index) {
+    SegmentKey key = new SegmentKey(itemKey, index);
+    return segments.get(key, (k, executor) -> CompletableFuture.supplyAsync(
+        () -> fetch(fileDB, fileSize, index), segmentFetchExecutor));
+  }
+
+  private void prefetch(FileDB fileDB, String itemKey, long fileSize, long fromIndex) {
+    long lastIndex = (fileSize - 1) / segmentSize;
+    for (long index = fromIndex; index <= Math.min(lastIndex, fromIndex + readAhead - 1); index++) {
+      try {
+        segment(fileDB, itemKey, fileSize, index);
+      } catch (RejectedExecutionException e) {
+        logger.debug("Segment executor busy, skipping read-ahead for {}", fileDB.getName());
+        return;
+      }
+    }
+  }
+
+  private byte[] fetch(FileDB fileDB, long fileSize, long index) {
+    long start = index * segmentSize;
+    int length = (int) Math.min(segmentSize, fileSize - start);
+    String rangeHeader = String.format("bytes=%d-%d", start, start + length - 1);
+    try (InputStream inputStream = oneDriveService.streamFileWithRange(fileDB.getOneDriveId(), fileDB.getName(), rangeHeader)) {
+      byte[] data = inputStream.readNBytes(length);
+      if (data.length != length) {
+        // Không cache segment bị cắt ngắn
+        throw new IOException("Short segment " + index + " for " + fileDB.getName() + ": " + data.length + "/" + length);
+      }
+      logger.debug("Fetched segment {} ({} bytes) of {}", index, length, fileDB.getName());
+      return data;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private record SegmentKey(String itemKey, long index) {
+  }
+
+  private class SegmentInputStream extends InputStream {
+    private final FileDB fileDB;
+    private final String itemKey;
+    private final long fileSize;
+    private final long end;
+    private long position;
+    private byte[] current;
+    private long currentIndex = -1;
+
+    private SegmentInputStream(FileDB fileDB, String itemKey, long fileSize, long start, long end) {
+      this.fileDB = fileDB;
+      this.itemKey = itemKey;
+      this.fileSize = fileSize;
+      this.position = start;
+      this.end = Math.min(end, fileSize);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (position >= end) {
+        return -1;
+      }
+
+      long index = position / segmentSize;
+      if (index != currentIndex) {
+        current = load(index);
+        currentIndex = index;
+        prefetch(fileDB, itemKey, fileSize, index + 1);
+      }
+
+      int offset = (int) (position - index * segmentSize);
+      int count = (int) Math.min(Math.min(len, current.length - offset), end - position);
+      System.arraycopy(current, offset, buffer, off, count);
+      position += count;
+      return count;
+    }
+
+    private byte[] load(long index) throws IOException {
+      CompletableFuture<byte[]> future;
+      try {
+        future = segment(fileDB, itemKey, fileSize, index);
+      } catch (RejectedExecutionException e) {
+        // Pool tải segment đầy - tự tải trên thread hiện tại, không cache
+        try {
+          return fetch(fileDB, fileSize, index);
+        } catch (UncheckedIOException unchecked) {
+          throw unchecked.getCause();
+        }
+      }
+
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for segment of " + fileDB.getName());
+      } catch (ExecutionException | CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof UncheckedIOException unchecked) {
+          throw unchecked.getCause();
+        }
+        throw new IOException("Failed to fetch segment of " + fileDB.getName(), cause);
+      }
+    }
+  }
+}
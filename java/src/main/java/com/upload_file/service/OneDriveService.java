@@ -2,35 +2,41 @@ package com.upload_file.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.upload_file.common.FileRegionRequestBody;
+import com.upload_file.config.OneDriveConfig;
 import com.upload_file.dto.OneDriveUploadResult;
 import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PostConstruct;
 import lombok.Getter;
 import okhttp3.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class OneDriveService {
 
   private static final Logger logger = LoggerFactory.getLogger(OneDriveService.class);
 
-  @Value("${azure.client-id}")
-  private String clientId;
-
-  @Value("${azure.client-secret}")
-  private String clientSecret;
-
-  @Value("${azure.tenant-id}")
-  private String tenantId;
-
   @Value("${azure.site-id}")
   private String siteId;
 
@@ -49,7 +55,8 @@ public class OneDriveService {
   @Getter
   public enum DriveEndpoint {
     ROOT("root:/"),
-    CHILDREN("root/children");
+    CHILDREN("root/children"),
+    ITEMS("items/");
     private final String suffix;
 
     DriveEndpoint(String suffix) {
@@ -57,45 +64,62 @@ public class OneDriveService {
     }
   }
 
-  private static final String TOKEN_URL_TEMPLATE = "https://login.microsoftonline.com/%s/oauth2/v2.0/token";
   private static final String GRAPH_API_BASE = "https://graph.microsoft.com/v1.0";
   private static final String FOLDER_NAME = "project upload file";
-  private static final String ENCODED_FOLDER = URLEncoder.encode(FOLDER_NAME, StandardCharsets.UTF_8).replace("+", "%20") + "/";
+  private static final String ENCODED_FOLDER = URLEncoder.encode(FOLDER_NAME, StandardCharsets.UTF_8).replace("+", "%20");
 
-  private static final long CHUNK_SIZE = 5L * 1024 * 1024; // 5MB
+  private static final long UPLOAD_FRAGMENT_UNIT = 320L * 1024; // 320 KiB
+  private static final long RETRY_BASE_DELAY_MS = 1000;
+  private static final int READ_AHEAD_BUFFER = 256 * 1024;
 
-  private final OkHttpClient httpClient = new OkHttpClient();
-  private final ObjectMapper objectMapper = new ObjectMapper();
+  @Autowired
+  private OneDriveConfig oneDriveConfig;
 
-  @Timed(value = "onedrive.access.token", description = "Time taken to fetch OneDrive access token")
-  private String getAccessToken() throws IOException {
-    String tokenUrl = String.format(TOKEN_URL_TEMPLATE, tenantId);
+  @Autowired
+  private OneDriveTokenManager oneDriveTokenManager;
 
-    RequestBody formBody = new FormBody.Builder()
-        .add("client_id", clientId)
-        .add("scope", "https://graph.microsoft.com/.default")
-        .add("client_secret", clientSecret)
-        .add("grant_type", "client_credentials")
-        .build();
+  @Autowired
+  @Qualifier("fileTaskExecutor")
+  private TaskExecutor fileTaskExecutor;
 
-    Request request = new Request.Builder()
-        .url(tokenUrl)
-        .post(formBody)
+  @Autowired
+  @Qualifier("graphHttpClient")
+  private OkHttpClient graphHttpClient;
+
+  @Autowired
+  private SingleFlight singleFlight;
+
+  private OkHttpClient httpClient;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  // Drive-item id của FOLDER_NAME, resolve một lần và bỏ đi khi gặp 404
+  private final Object folderLock = new Object();
+  private volatile String folderId;
+
+  // @microsoft.graph.downloadUrl theo item - URL đã ký sẵn, GET thẳng tới CDN không cần token
+  private Cache<String, DownloadLink> downloadLinks;
+
+  @PostConstruct
+  public void init() {
+    // Dùng chung pool/dispatcher với graphHttpClient; Graph trả 401 thì bỏ token đang cache
+    httpClient = graphHttpClient.newBuilder()
+        .addInterceptor(chain -> {
+          Response response = chain.proceed(chain.request());
+          if (response.code() == 401 && chain.request().header(jwtHeader) != null) {
+            oneDriveTokenManager.invalidate();
+          }
+          return response;
+        })
         .build();
 
-    try (Response response = httpClient.newCall(request).execute()) {
-      if (!response.isSuccessful()) {
-        String errorBody = response.body() != null ? response.body().string() : "No response body";
-        logger.error("Failed to get access token. Status: {}, Body: {}", response.code(), errorBody);
-        throw new IOException("Failed to get access token: " + response.code() + " - " + errorBody);
-      }
+    downloadLinks = Caffeine.newBuilder()
+        .maximumSize(1000)
+        .expireAfterWrite(oneDriveConfig.getStreaming().getDownloadUrlTtlMinutes(), TimeUnit.MINUTES)
+        .build();
+  }
 
-      String responseBody = response.body().string();
-      JsonNode json = objectMapper.readTree(responseBody);
-      String accessToken = json.get("access_token").asText();
-      logger.info("Successfully obtained access token");
-      return accessToken;
-    }
+  private String getAccessToken() throws IOException {
+    return oneDriveTokenManager.getAccessToken();
   }
 
   private String getDriveUrl(DriveEndpoint endpoint) {
@@ -117,14 +141,10 @@ public class OneDriveService {
   }
 
   @Timed(value = "onedrive.upload.file", description = "Time taken to upload file to OneDrive")
-  public OneDriveUploadResult uploadLargeFile(String fileName, byte[] content) throws IOException {
+  public OneDriveUploadResult uploadLargeFile(String fileName, Path source) throws IOException {
     String accessToken = getAccessToken();
     String cleanFileName = sanitizeFileName(fileName);
     String encodedName = URLEncoder.encode(cleanFileName, StandardCharsets.UTF_8).replace("+", "%20");
-
-    ensureFolderExists();
-
-    String sessionUrl = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.ROOT) + ENCODED_FOLDER + encodedName + ":/createUploadSession";
     String sessionRequestBody = String.format(
         "{\n" +
             "  \"item\": {\n" +
@@ -135,61 +155,206 @@ public class OneDriveService {
     );
 
     RequestBody sessionBody = RequestBody.create(sessionRequestBody, MediaType.parse("application/json"));
-    Request sessionRequest = new Request.Builder()
-        .url(sessionUrl)
-        .post(sessionBody)
-        .addHeader(jwtHeader, "Bearer " + accessToken)
-        .addHeader("Content-Type", "application/json")
-        .build();
 
-    String uploadUrl;
-    try (Response response = httpClient.newCall(sessionRequest).execute()) {
-      if (!response.isSuccessful()) {
-        String errorBody = response.body() != null ? response.body().string() : "No response body";
-        throw new IOException("Failed to create upload session: " + response.code() + " - " + errorBody);
-      }
-      JsonNode json = objectMapper.readTree(response.body().string());
-      uploadUrl = json.get("uploadUrl").asText();
+    String uploadUrl = null;
+    for (int attempt = 0; uploadUrl == null; attempt++) {
+      String sessionUrl = itemUrl(null, fileName) + "/createUploadSession";
+      Request sessionRequest = new Request.Builder()
+          .url(sessionUrl)
+          .post(sessionBody)
+          .addHeader(jwtHeader, "Bearer " + accessToken)
+          .addHeader("Content-Type", "application/json")
+          .build();
 
+      try (Response response = httpClient.newCall(sessionRequest).execute()) {
+        if (response.code() == 404 && attempt == 0) {
+          // Folder id trong cache đã không còn (folder bị xóa) - resolve lại một lần
+          invalidateFolderId();
+          continue;
+        }
+        if (!response.isSuccessful()) {
+          String errorBody = response.body() != null ? response.body().string() : "No response body";
+          throw new IOException("Failed to create upload session: " + response.code() + " - " + errorBody);
+        }
+        JsonNode json = objectMapper.readTree(response.body().string());
+        uploadUrl = json.get("uploadUrl").asText();
+      }
     }
 
-    long totalSize = content.length;
-    long start = 0;
     String fileId = null;
+    long sliceSize = getSliceSize();
+
+    // Slice được gửi thẳng từ FileChannel; trong lúc PUT slice hiện tại thì đọc trước slice kế tiếp vào page cache
+    try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+      long totalSize = channel.size();
+      long start = 0;
+      // Một buffer cho cả lần upload - direct buffer chỉ được giải phóng khi GC; mỗi lúc chỉ có một read-ahead chạy
+      ByteBuffer readAheadBuffer = ByteBuffer.allocateDirect(READ_AHEAD_BUFFER);
+
+      while (start < totalSize) {
+        long length = Math.min(sliceSize, totalSize - start);
+        long next = start + length;
+        CompletableFuture<Void> prefetch = next < totalSize
+            ? startReadAhead(channel, readAheadBuffer, next, Math.min(sliceSize, totalSize - next))
+            : CompletableFuture.completedFuture(null);
+
+        try {
+          SliceResult result = putSliceWithRetry(uploadUrl, channel, start, length, totalSize);
+          if (result.fileId() != null) {
+            fileId = result.fileId();
+          }
+          start = result.nextStart();
+        } finally {
+          prefetch.join();
+        }
+      }
+    }
 
-    while (start < totalSize) {
-      long end = Math.min(start + CHUNK_SIZE - 1, totalSize - 1);
-      byte[] chunk = new byte[(int) (end - start + 1)];
-      System.arraycopy(content, (int) start, chunk, 0, chunk.length);
+    String filePath = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.ROOT) + ENCODED_FOLDER + "/" + encodedName;
+    logger.info("File uploaded successfully: {} (ID: {})", cleanFileName, fileId);
+    // Ghi đè file cùng tên thì link cũ không còn đúng
+    downloadLinks.invalidate(downloadLinkKey(null, fileName));
+    return new OneDriveUploadResult(fileId, filePath);
+  }
 
-      RequestBody chunkBody = RequestBody.create(chunk, MediaType.parse("application/octet-stream"));
+  /**
+   * PUT một slice, retry có backoff khi lỗi mạng / 429 / 5xx - chỉ gửi lại đúng range bị lỗi
+   */
+  private SliceResult putSliceWithRetry(String uploadUrl, FileChannel channel, long start, long length,
+                                        long totalSize) throws IOException {
+    long end = start + length - 1;
+    int maxRetries = oneDriveConfig.getUpload().getRetryCount();
+
+    for (int attempt = 0; ; attempt++) {
       Request chunkRequest = new Request.Builder()
           .url(uploadUrl)
-          .put(chunkBody)
+          .put(new FileRegionRequestBody(channel, start, length))
           .addHeader("Content-Range", "bytes " + start + "-" + end + "/" + totalSize)
-          .addHeader("Content-Length", String.valueOf(chunk.length))
           .build();
 
+      long retryAfterMillis = -1;
+      boolean retryable = true;
+      String failure;
       try (Response response = httpClient.newCall(chunkRequest).execute()) {
-        if (!response.isSuccessful()) {
-          String errorBody = response.body() != null ? response.body().string() : "No response body";
-          throw new IOException("Chunk upload failed: " + response.code() + " - " + errorBody);
+        String responseBody = response.body() != null ? response.body().string() : "";
+        if (response.isSuccessful()) {
+          logger.info("Uploaded chunk: {}-{}/{}", start, end, totalSize);
+          JsonNode json = objectMapper.readTree(responseBody);
+          if (json.has("id")) {
+            return new SliceResult(json.get("id").asText(), end + 1);
+          }
+          long nextStart = parseNextExpectedStart(json);
+          return new SliceResult(null, nextStart >= 0 ? nextStart : end + 1);
         }
 
-        String responseBody = response.body().string();
-        JsonNode json = objectMapper.readTree(responseBody);
-        if (json.has("id")) {
-          fileId = json.get("id").asText();
+        if (response.code() == 416) {
+          // Server đã nhận range này (vd: response lần trước bị mất) - hỏi lại vị trí cần gửi tiếp
+          long nextStart = queryNextExpectedStart(uploadUrl);
+          if (nextStart >= 0) {
+            logger.info("Range {}-{} already received, resuming at {}", start, end, nextStart);
+            return new SliceResult(null, nextStart);
+          }
         }
-        logger.info("Uploaded chunk: {}-{}/{}", start, end, totalSize);
+
+        failure = response.code() + " - " + responseBody;
+        retryable = isRetryableStatus(response.code());
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter != null && retryAfter.matches("\\d+")) {
+          retryAfterMillis = Long.parseLong(retryAfter) * 1000;
+        }
+      } catch (IOException e) {
+        failure = e.getMessage();
       }
 
-      start = end + 1;
+      if (!retryable) {
+        throw new IOException("Chunk upload failed: " + failure);
+      }
+      if (attempt >= maxRetries) {
+        throw new IOException("Chunk upload failed after " + (attempt + 1) + " attempts: " + failure);
+      }
+      long backoff = retryAfterMillis >= 0 ? retryAfterMillis : RETRY_BASE_DELAY_MS * (1L << attempt);
+      logger.warn("Chunk {}-{}/{} failed ({}), retry {}/{} in {}ms", start, end, totalSize, failure,
+          attempt + 1, maxRetries, backoff);
+      try {
+        Thread.sleep(backoff);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while retrying chunk upload", ie);
+      }
     }
+  }
 
-    String filePath = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.ROOT) + ENCODED_FOLDER + encodedName;
-    logger.info("File uploaded successfully: {} (ID: {})", cleanFileName, fileId);
-    return new OneDriveUploadResult(fileId, filePath);
+  /**
+   * GET upload URL trả về nextExpectedRanges của session
+   */
+  private long queryNextExpectedStart(String uploadUrl) {
+    Request statusRequest = new Request.Builder().url(uploadUrl).get().build();
+    try (Response response = httpClient.newCall(statusRequest).execute()) {
+      if (!response.isSuccessful() || response.body() == null) {
+        return -1;
+      }
+      return parseNextExpectedStart(objectMapper.readTree(response.body().string()));
+    } catch (IOException e) {
+      logger.warn("Could not query upload session status: {}", e.getMessage());
+      return -1;
+    }
+  }
+
+  private long parseNextExpectedStart(JsonNode json) {
+    JsonNode ranges = json.get("nextExpectedRanges");
+    if (ranges == null || !ranges.isArray() || ranges.isEmpty()) {
+      return -1;
+    }
+    String range = ranges.get(0).asText();
+    int dash = range.indexOf('-');
+    return Long.parseLong(dash >= 0 ? range.substring(0, dash) : range);
+  }
+
+  private boolean isRetryableStatus(int code) {
+    return code == 408 || code == 429 || code >= 500;
+  }
+
+  /**
+   * Graph yêu cầu mỗi fragment (trừ fragment cuối) là bội số của 320 KiB
+   */
+  private long getSliceSize() {
+    long configured = oneDriveConfig.getUpload().getChunkSize();
+    return Math.max(UPLOAD_FRAGMENT_UNIT, configured / UPLOAD_FRAGMENT_UNIT * UPLOAD_FRAGMENT_UNIT);
+  }
+
+  /**
+   * Chạy read-ahead trên fileTaskExecutor; pool đầy thì đọc ngay trên thread hiện tại thay vì làm hỏng cả lần upload
+   */
+  private CompletableFuture<Void> startReadAhead(FileChannel channel, ByteBuffer buffer, long position, long length) {
+    try {
+      return CompletableFuture.runAsync(() -> readAhead(channel, buffer, position, length), fileTaskExecutor);
+    } catch (RejectedExecutionException e) {
+      logger.debug("Executor busy, reading ahead inline at {}", position);
+      readAhead(channel, buffer, position, length);
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+
+  /**
+   * Đọc trước vùng file vào page cache để lần PUT kế tiếp không phải chờ disk
+   */
+  private void readAhead(FileChannel channel, ByteBuffer buffer, long position, long length) {
+    long read = 0;
+    try {
+      while (read < length) {
+        buffer.clear().limit((int) Math.min(buffer.capacity(), length - read));
+        int n = channel.read(buffer, position + read);
+        if (n < 0) {
+          break;
+        }
+        read += n;
+      }
+    } catch (IOException e) {
+      logger.debug("Read-ahead failed at {}: {}", position, e.getMessage());
+    }
+  }
+
+  private record SliceResult(String fileId, long nextStart) {
   }
 
   // IMPROVED: Better sanitization method
@@ -223,13 +388,20 @@ public class OneDriveService {
     return sanitized;
   }
 
-  @Timed(value = "onedrive.download.file", description = "Time taken to download file from OneDrive")
   public byte[] downloadFile(String fileName) throws IOException {
-    String accessToken = getAccessToken();
-    String encodedName = URLEncoder.encode(sanitizeFileName(fileName), StandardCharsets.UTF_8).replace("+", "%20");
+    return downloadFile(null, fileName);
+  }
 
-    ensureFolderExists();
-    String url = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.ROOT) + ENCODED_FOLDER + encodedName + ":/content";
+  @Timed(value = "onedrive.download.file", description = "Time taken to download file from OneDrive")
+  public byte[] downloadFile(String oneDriveId, String fileName) throws IOException {
+    // Nhiều request cùng tải một item chỉ tạo một lần tải từ Graph
+    return singleFlight.execute(SingleFlight.Operation.REMOTE_FETCH, downloadLinkKey(oneDriveId, fileName),
+        () -> fetchContent(oneDriveId, fileName));
+  }
+
+  private byte[] fetchContent(String oneDriveId, String fileName) throws IOException {
+    String accessToken = getAccessToken();
+    String url = itemUrl(oneDriveId, fileName) + "/content";
 
     Request request = new Request.Builder()
         .url(url)
@@ -240,6 +412,7 @@ public class OneDriveService {
     try (Response response = httpClient.newCall(request).execute()) {
       if (!response.isSuccessful()) {
         String errorBody = response.body() != null ? response.body().string() : "No response body";
+        handleNotFound(oneDriveId, response.code());
         logger.error("Failed to download file. Status: {}, Body: {}", response.code(), errorBody);
         throw new IOException("Failed to download file: " + response.code() + " - " + errorBody);
       }
@@ -252,11 +425,9 @@ public class OneDriveService {
   private boolean deleteFileAll(String fileName, String onedriveId, boolean permanentDelete) throws IOException {
     String accessToken = getAccessToken();
     String cleanFileName = sanitizeFileName(fileName);
-    String filePath = FOLDER_NAME + "/" + cleanFileName;
-    String itemId = onedriveId != null ? onedriveId : fetchOneDriveId(filePath);
 
     // Step 1: Delete from OneDrive (move to recycle bin or permanent)
-    String deleteUrl = GRAPH_API_BASE + "/users/" + userId + "/drive/items/" + itemId;
+    String deleteUrl = itemUrl(onedriveId, fileName);
     if (permanentDelete) {
       deleteUrl += "?permanentDelete=true";
     }
@@ -274,6 +445,8 @@ public class OneDriveService {
       }
       logger.info("File {}: {}", permanentDelete ? "permanently deleted" : "deleted (moved to recycle bin)", cleanFileName);
     }
+    downloadLinks.invalidate(downloadLinkKey(onedriveId, fileName));
+    downloadLinks.invalidate(downloadLinkKey(null, fileName));
 
     // Step 2: Delete from second stage recycle bin (if permanentDelete is true)
     if (permanentDelete && siteId != null && !siteId.isEmpty()) {
@@ -304,10 +477,7 @@ public class OneDriveService {
   @Timed(value = "onedrive.preview.file.stream", description = "Time taken to preview file stream from OneDrive")
   public InputStream previewFileStream(String fileName) throws IOException {
     String accessToken = getAccessToken();
-    String encodedName = URLEncoder.encode(sanitizeFileName(fileName), StandardCharsets.UTF_8).replace("+", "%20");
-
-    ensureFolderExists();
-    String url = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.ROOT) + ENCODED_FOLDER + encodedName + ":/content";
+    String url = itemUrl(null, fileName) + "/content";
 
     Request request = new Request.Builder()
         .url(url)
@@ -325,6 +495,7 @@ public class OneDriveService {
       } finally {
         response.close(); // Đảm bảo đóng response
       }
+      handleNotFound(null, response.code());
       logger.error("Failed to preview file stream. Status: {}, Body: {}", response.code(), errorBody);
       throw new IOException("Failed to preview file stream: " + response.code() + " - " + errorBody);
     }
@@ -359,7 +530,7 @@ public class OneDriveService {
     for (int attempt = 0; attempt < 3; attempt++) {
       try {
         String accessToken = getAccessToken();
-        String url = GRAPH_API_BASE + "/users/" + userId + "/drive/root:/" + encodedFilePath;
+        String url = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.ROOT) + encodedFilePath;
         Request request = new Request.Builder()
             .url(url)
             .get()
@@ -385,15 +556,57 @@ public class OneDriveService {
     throw lastException;
   }
 
-  private void ensureFolderExists() throws IOException {
-    if (!folderExists()) {
-      createFolderIfNotExists();
+  /**
+   * Id của folder upload - resolve một lần bằng GET root:/FOLDER (tạo nếu chưa có) rồi cache lại
+   */
+  private String resolveFolderId() throws IOException {
+    String cached = folderId;
+    if (cached != null) {
+      return cached;
+    }
+
+    synchronized (folderLock) {
+      if (folderId != null) {
+        return folderId;
+      }
+      String id = fetchFolderId();
+      if (id == null) {
+        id = createFolder();
+      }
+      folderId = id;
+      logger.info("Resolved OneDrive folder '{}' to id {}", FOLDER_NAME, id);
+      return id;
     }
   }
 
-  private boolean folderExists() throws IOException {
+  private void invalidateFolderId() {
+    folderId = null;
+  }
+
+  /**
+   * 404 khi địa chỉ theo folder id có thể do folder đã bị xóa/tạo lại - lần sau resolve lại
+   */
+  private void handleNotFound(String oneDriveId, int code) {
+    if (code == 404 && (oneDriveId == null || oneDriveId.isBlank())) {
+      invalidateFolderId();
+    }
+  }
+
+  /**
+   * URL của item: theo id nếu đã biết, nếu không thì theo tên trong folder upload (items/{folderId}:/{name}:)
+   */
+  private String itemUrl(String oneDriveId, String fileName) throws IOException {
+    String itemsUrl = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.ITEMS);
+    if (oneDriveId != null && !oneDriveId.isBlank()) {
+      return itemsUrl + oneDriveId;
+    }
+    String encodedName = URLEncoder.encode(sanitizeFileName(fileName), StandardCharsets.UTF_8).replace("+", "%20");
+    return itemsUrl + resolveFolderId() + ":/" + encodedName + ":";
+  }
+
+  private String fetchFolderId() throws IOException {
     String accessToken = getAccessToken();
-    String url = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.CHILDREN);
+    String url = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.ROOT) + ENCODED_FOLDER + "?$select=id,folder";
 
     Request request = new Request.Builder()
         .url(url)
@@ -403,35 +616,25 @@ public class OneDriveService {
         .build();
 
     try (Response response = httpClient.newCall(request).execute()) {
+      if (response.code() == 404) {
+        return null;
+      }
       if (!response.isSuccessful()) {
         String errorBody = response.body() != null ? response.body().string() : "No response body";
-        logger.error("Failed to list children. Status: {}, Body: {}", response.code(), errorBody);
-        throw new IOException("Failed to list children: " + response.code() + " - " + errorBody);
-      }
-
-      String responseBody = response.body().string();
-      JsonNode json = objectMapper.readTree(responseBody);
-      JsonNode valueNode = json.get("value");
-
-      if (valueNode != null && valueNode.isArray()) {
-        for (JsonNode item : valueNode) {
-          JsonNode nameNode = item.get("name");
-          if (nameNode != null && nameNode.asText().equals(FOLDER_NAME) && item.has("folder")) {
-            return true;
-          }
-        }
+        logger.error("Failed to resolve folder. Status: {}, Body: {}", response.code(), errorBody);
+        throw new IOException("Failed to resolve folder: " + response.code() + " - " + errorBody);
       }
-      return false;
+      return objectMapper.readTree(response.body().string()).get("id").asText();
     }
   }
 
-  private void createFolderIfNotExists() throws IOException {
+  private String createFolder() throws IOException {
     String accessToken = getAccessToken();
     String url = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.CHILDREN);
     String jsonBody = "{\n" +
         "  \"name\": \"" + FOLDER_NAME + "\",\n" +
         "  \"folder\": {},\n" +
-        "  \"@microsoft.graph.conflictBehavior\": \"rename\"\n" +
+        "  \"@microsoft.graph.conflictBehavior\": \"fail\"\n" +
         "}";
 
     RequestBody body = RequestBody.create(jsonBody, MediaType.parse("application/json"));
@@ -443,12 +646,20 @@ public class OneDriveService {
         .build();
 
     try (Response response = httpClient.newCall(request).execute()) {
+      if (response.code() == 409) {
+        // Instance khác vừa tạo folder - lấy id của folder đó
+        String id = fetchFolderId();
+        if (id != null) {
+          return id;
+        }
+      }
       if (!response.isSuccessful()) {
         String errorBody = response.body() != null ? response.body().string() : "No response body";
         logger.error("Failed to create folder. Status: {}, Body: {}", response.code(), errorBody);
         throw new IOException("Failed to create folder: " + response.code() + " - " + errorBody);
       }
       logger.info("Folder created successfully: {}", FOLDER_NAME);
+      return objectMapper.readTree(response.body().string()).get("id").asText();
     }
   }
 
@@ -514,14 +725,9 @@ public class OneDriveService {
       // Test list available drives/sites
       listAvailableDrives();
 
-      // Test folder check
-      boolean exists = folderExists();
-      logger.info("Folder exists: {}", exists);
-
-      if (!exists) {
-        logger.info("Creating folder...");
-        createFolderIfNotExists();
-      }
+      // Test folder check (tạo nếu chưa có)
+      invalidateFolderId();
+      logger.info("Folder id: {}", resolveFolderId());
 
     } catch (Exception e) {
       logger.error("Connection test failed", e);
@@ -529,55 +735,96 @@ public class OneDriveService {
     }
   }
 
-  @Timed(value = "onedrive.stream.file.with.range", description = "Time taken to stream file with range from OneDrive")
   public InputStream streamFileWithRange(String fileName, String rangeHeader) throws IOException {
-    String accessToken = getAccessToken();
-    String encodedName = URLEncoder.encode(sanitizeFileName(fileName), StandardCharsets.UTF_8).replace("+", "%20");
+    return streamFileWithRange(null, fileName, rangeHeader);
+  }
 
-    ensureFolderExists();
-    String url = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.ROOT) + ENCODED_FOLDER + encodedName + ":/content";
+  @Timed(value = "onedrive.stream.file.with.range", description = "Time taken to stream file with range from OneDrive")
+  public InputStream streamFileWithRange(String oneDriveId, String fileName, String rangeHeader) throws IOException {
+    String key = downloadLinkKey(oneDriveId, fileName);
 
-    Request.Builder builder = new Request.Builder()
-        .url(url)
-        .get()
-        .addHeader(jwtHeader, "Bearer " + accessToken);
+    for (int attempt = 0; ; attempt++) {
+      DownloadLink link = getDownloadLink(oneDriveId, fileName);
 
-    if (rangeHeader != null && !rangeHeader.isEmpty()) {
-      builder.addHeader("Range", rangeHeader);
-    }
+      // downloadUrl đã được ký sẵn - không gửi Authorization
+      Request.Builder builder = new Request.Builder()
+          .url(link.url())
+          .get();
 
-    Response response = httpClient.newCall(builder.build()).execute();
-    if (!response.isSuccessful()) {
+      if (rangeHeader != null && !rangeHeader.isEmpty()) {
+        builder.addHeader("Range", rangeHeader);
+      }
+
+      Response response = httpClient.newCall(builder.build()).execute();
+      if (response.isSuccessful()) {
+        // Wrap InputStream để tự động đóng response
+        return new FilterInputStream(response.body().byteStream()) {
+          @Override
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              response.close();
+            }
+          }
+        };
+      }
+
+      int code = response.code();
       try {
         String errorBody = response.body() != null ? response.body().string() : "No response body";
-        logger.error("Failed to stream file with range: {} - {}", response.code(), errorBody);
+        if ((code == 401 || code == 403) && attempt == 0) {
+          // URL hết hạn hoặc bị thu hồi - resolve lại một lần
+          logger.debug("Download URL rejected ({}) for {}, re-resolving", code, fileName);
+          downloadLinks.invalidate(key);
+          continue;
+        }
+        logger.error("Failed to stream file with range: {} - {}", code, errorBody);
       } finally {
         response.close();
       }
-      throw new IOException("Failed to stream file with range: " + response.code());
+      throw new IOException("Failed to stream file with range: " + code);
     }
+  }
 
-    // Wrap InputStream để tự động đóng response
-    return new FilterInputStream(response.body().byteStream()) {
-      @Override
-      public void close() throws IOException {
-        try {
-          super.close();
-        } finally {
-          response.close();
-        }
-      }
-    };
+  public long getFileSize(String fileName) throws IOException {
+    return getFileSize(null, fileName);
   }
 
   @Timed(value = "onedrive.get.file.size", description = "Time taken to get OneDrive file size")
-  public long getFileSize(String fileName) throws IOException {
-    String accessToken = getAccessToken();
-    String cleanFileName = sanitizeFileName(fileName);
-    String encodedName = URLEncoder.encode(cleanFileName, StandardCharsets.UTF_8).replace("+", "%20");
+  public long getFileSize(String oneDriveId, String fileName) throws IOException {
+    return getDownloadLink(oneDriveId, fileName).size();
+  }
+
+  /**
+   * eTag lấy trực tiếp từ OneDrive, đồng thời làm mới download link đã cache
+   */
+  public String refreshETag(String oneDriveId, String fileName) throws IOException {
+    DownloadLink link = fetchDownloadLink(oneDriveId, fileName);
+    downloadLinks.put(downloadLinkKey(oneDriveId, fileName), link);
+    return link.eTag();
+  }
+
+  private DownloadLink getDownloadLink(String oneDriveId, String fileName) throws IOException {
+    String key = downloadLinkKey(oneDriveId, fileName);
+    DownloadLink link = downloadLinks.getIfPresent(key);
+    if (link == null) {
+      link = fetchDownloadLink(oneDriveId, fileName);
+      downloadLinks.put(key, link);
+    }
+    return link;
+  }
+
+  private String downloadLinkKey(String oneDriveId, String fileName) {
+    return oneDriveId != null && !oneDriveId.isBlank() ? oneDriveId : "name:" + sanitizeFileName(fileName);
+  }
 
-    ensureFolderExists();
-    String url = GRAPH_API_BASE + getDriveUrl(DriveEndpoint.ROOT) + ENCODED_FOLDER + encodedName;
+  /**
+   * Một request metadata lấy cả downloadUrl và size của item
+   */
+  private DownloadLink fetchDownloadLink(String oneDriveId, String fileName) throws IOException {
+    String accessToken = getAccessToken();
+    String url = itemUrl(oneDriveId, fileName) + "?$select=id,size,eTag,@microsoft.graph.downloadUrl";
 
     Request request = new Request.Builder()
         .url(url)
@@ -589,13 +836,23 @@ public class OneDriveService {
     try (Response response = httpClient.newCall(request).execute()) {
       if (!response.isSuccessful()) {
         String errorBody = response.body() != null ? response.body().string() : "No response body";
-        logger.error("Failed to get file size. Status: {}, Body: {}", response.code(), errorBody);
-        throw new IOException("Failed to get file size: " + response.code() + " - " + errorBody);
+        handleNotFound(oneDriveId, response.code());
+        logger.error("Failed to resolve download URL. Status: {}, Body: {}", response.code(), errorBody);
+        throw new IOException("Failed to resolve download URL: " + response.code() + " - " + errorBody);
       }
 
       JsonNode json = objectMapper.readTree(response.body().string());
-      return json.get("size").asLong();
+      JsonNode downloadUrl = json.get("@microsoft.graph.downloadUrl");
+      if (downloadUrl == null || downloadUrl.isNull()) {
+        throw new IOException("OneDrive item has no download URL: " + fileName);
+      }
+      JsonNode eTag = json.get("eTag");
+      return new DownloadLink(downloadUrl.asText(), json.get("size").asLong(),
+          eTag != null && !eTag.isNull() ? eTag.asText() : null);
     }
   }
 
-}
\ No newline at end of file
+  private record DownloadLink(String url, long size, String eTag) {
+  }
+
+}
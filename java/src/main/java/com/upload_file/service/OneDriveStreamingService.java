@@ -2,6 +2,7 @@ package com.upload_file.service;
 
 import com.upload_file.common.Constants;
 import com.upload_file.entity.FileDB;
+import com.upload_file.exception.RangeNotSatisfiableException;
 import com.upload_file.service.abstract_file.AbstractStreamingService;
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
@@ -21,6 +22,7 @@ import org.springframework.stereotype.Service;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.Map;
 
 @Service
@@ -31,13 +33,42 @@ public class OneDriveStreamingService extends AbstractStreamingService {
   @Value("${app.streaming.timeout:30000}")
   private int streamingTimeout;
 
+  @Value("${app.streaming.video.chunk-limit:10485760}")
+  private long videoChunkLimit;
+
   @Autowired
   private OneDriveService oneDriveService;
 
+  @Autowired
+  private OneDriveDiskCache oneDriveDiskCache;
+
+  @Autowired
+  private OneDriveSegmentFetcher oneDriveSegmentFetcher;
+
   public ResponseEntity<?> stream(@NotNull FileDB file,
                                                     HttpServletRequest request,
                                                     HttpServletResponse response) {
-    String rangeHeader = request.getHeader("Range");
+    return stream(file, request.getHeader("Range"), response);
+  }
+
+  public ResponseEntity<?> stream(@NotNull FileDB file, String rangeHeader, HttpServletResponse response) {
+    // File nóng đã có bản copy local thì không đi qua Graph
+    Path cached = oneDriveDiskCache.lookup(file);
+    if (cached != null) {
+      try {
+        String disposition = String.format("inline; filename*=UTF-8''%s", encodeFilenameForHeader(file.getName()));
+        return streamLocalCopy(cached, disposition, getMediaTypeForFile(file.getName()), rangeHeader, response);
+      } catch (IOException e) {
+        if (isClientDisconnected(e)) {
+          return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+        }
+        logger.warn("Cached copy of {} failed, streaming from OneDrive: {}", file.getName(), e.getMessage());
+        if (response.isCommitted()) {
+          return null;
+        }
+        response.reset();
+      }
+    }
 
     // Kiểm tra nếu là video file và có range request - COPY logic cũ
     if (isVideoFile(file.getName()) && rangeHeader != null) {
@@ -55,7 +86,7 @@ public class OneDriveStreamingService extends AbstractStreamingService {
         encodeFilenameForHeader(fileName));
     MediaType mediaType = getMediaTypeForFile(fileName);
 
-    return streamFileFromOneDrive(fileName, disposition, mediaType, rangeHeader, response);
+    return streamFileFromOneDrive(file, disposition, mediaType, rangeHeader, response);
   }
 
   public ResponseEntity<?> streamVideoWithRange(@NotNull FileDB file, String rangeHeader,
@@ -67,9 +98,10 @@ public class OneDriveStreamingService extends AbstractStreamingService {
     return streamVideoFromOneDriveWithRange(fileName, disposition, mediaType, rangeHeader, response, file);
   }
 
-  private ResponseEntity<?> streamFileFromOneDrive(String fileName, String disposition,
+  private ResponseEntity<?> streamFileFromOneDrive(@NotNull FileDB fileDB, String disposition,
                                                    MediaType mediaType, String rangeHeader,
                                                    HttpServletResponse response) {
+    String fileName = fileDB.getName();
     InputStream inputStream = null;
 
     try {
@@ -78,7 +110,19 @@ public class OneDriveStreamingService extends AbstractStreamingService {
         return null;
       }
 
-      inputStream = oneDriveService.streamFileWithRange(fileName, rangeHeader);
+      if (rangeHeader != null) {
+        // Range (kể cả nhiều range) xử lý như các tier khác - mỗi range là một GET tới downloadUrl
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition);
+        response.setHeader(HttpHeaders.CONTENT_TYPE, mediaType.toString());
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("Cache-Control", "public, max-age=3600");
+        long fileSize = fileDB.getSize() != null
+            ? fileDB.getSize() : oneDriveService.getFileSize(fileDB.getOneDriveId(), fileName);
+        return streamRanges(rangeHeader, fileSize, response,
+            (outputStream, start, length) -> streamOneDriveRange(fileDB, outputStream, start, length));
+      }
+
+      inputStream = oneDriveService.streamFileWithRange(fileDB.getOneDriveId(), fileName, null);
 
       response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition);
       response.setHeader(HttpHeaders.CONTENT_TYPE, mediaType.toString());
@@ -154,6 +198,14 @@ public class OneDriveStreamingService extends AbstractStreamingService {
     }
   }
 
+  private void streamOneDriveRange(@NotNull FileDB fileDB, ServletOutputStream outputStream,
+                                   long start, long length) throws IOException {
+    String rangeHeader = String.format("bytes=%d-%d", start, start + length - 1);
+    try (InputStream inputStream = oneDriveService.streamFileWithRange(fileDB.getOneDriveId(), fileDB.getName(), rangeHeader)) {
+      streamData(inputStream, outputStream, 0, length);
+    }
+  }
+
   private ResponseEntity<?> streamVideoFromOneDriveWithRange(String fileName, String disposition,
                                                              MediaType mediaType, String rangeHeader,
                                                              HttpServletResponse response, FileDB fileDB) {
@@ -171,11 +223,11 @@ public class OneDriveStreamingService extends AbstractStreamingService {
         fileSize = fileDB.getSize();
       } else {
         try {
-          fileSize = oneDriveService.getFileSize(fileName);
+          fileSize = oneDriveService.getFileSize(fileDB.getOneDriveId(), fileName);
         } catch (Exception e) {
           logger.error("Failed to get file size from OneDrive: {}", e.getMessage());
           // Fallback to non-range streaming
-          return streamFileFromOneDrive(fileName, disposition, mediaType, null, response);
+          return streamFileFromOneDrive(fileDB, disposition, mediaType, null, response);
         }
       }
 
@@ -185,11 +237,13 @@ public class OneDriveStreamingService extends AbstractStreamingService {
       long end = range.getRangeEnd(fileSize);
       long contentLength = end - start + 1;
 
-      // Giới hạn chunk size cho video streaming để tránh timeout
-      long maxChunkSize = Constants.MAX_DB_SIZE; // 10MB
-      if (contentLength > maxChunkSize) {
-        end = start + maxChunkSize - 1;
-        contentLength = maxChunkSize;
+      // Giới hạn mỗi response, kết thúc ở biên segment để request sau của player bắt đầu đúng segment đã tải trước
+      if (contentLength > videoChunkLimit) {
+        long segmentSize = oneDriveSegmentFetcher.getSegmentSize();
+        long limitEnd = start + videoChunkLimit;
+        long alignedEnd = Math.max(limitEnd - limitEnd % segmentSize, (start / segmentSize + 1) * segmentSize);
+        end = Math.min(end, alignedEnd - 1);
+        contentLength = end - start + 1;
       }
 
       // Set response headers for partial content
@@ -201,11 +255,8 @@ public class OneDriveStreamingService extends AbstractStreamingService {
       response.setHeader("Accept-Ranges", "bytes");
       response.setHeader("Cache-Control", "public, max-age=3600");
 
-      // Tạo range header cho OneDrive request
-      String oneDriveRangeHeader = String.format("bytes=%d-%d", start, end);
-
       try {
-        inputStream = oneDriveService.streamFileWithRange(fileName, oneDriveRangeHeader);
+        inputStream = oneDriveSegmentFetcher.openRange(fileDB, buildETag(fileDB), fileSize, start, contentLength);
       } catch (Exception e) {
         logger.error("Failed to get OneDrive stream: {}", e.getMessage());
         if (!response.isCommitted()) {
@@ -264,6 +315,8 @@ public class OneDriveStreamingService extends AbstractStreamingService {
         throw e;
       }
 
+    } catch (RangeNotSatisfiableException e) {
+      return rangeNotSatisfiable(response, e.getFileSize());
     } catch (Exception e) {
       logger.error("Error streaming video file with range: {} - {}", fileName, e.getMessage(), e);
 
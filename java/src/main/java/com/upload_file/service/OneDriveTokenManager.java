@@ -0,0 +1,184 @@
+package com.upload_file.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.FormBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cache access token client-credentials của Microsoft Graph.
+ * Token được dùng lại tới sát expires_in, làm mới nền trước khi hết hạn và chỉ một request làm mới tại một thời điểm.
+ */
+@Component
+public class OneDriveTokenManager {
+
+  private static final Logger logger = LoggerFactory.getLogger(OneDriveTokenManager.class);
+  private static final String TOKEN_URL_TEMPLATE = "https://login.microsoftonline.com/%s/oauth2/v2.0/token";
+
+  // Coi token hết hạn sớm hơn thực tế để bù lệch đồng hồ / độ trễ mạng
+  private static final long EXPIRY_SKEW_MS = 60_000;
+  // Trong khoảng này trước khi hết hạn thì làm mới nền, request hiện tại vẫn dùng token cũ
+  private static final long REFRESH_WINDOW_MS = 5 * 60_000;
+
+  @Value("${azure.client-id}")
+  private String clientId;
+
+  @Value("${azure.client-secret}")
+  private String clientSecret;
+
+  @Value("${azure.tenant-id}")
+  private String tenantId;
+
+  private final OkHttpClient httpClient;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final TaskExecutor fileTaskExecutor;
+
+  private final AtomicReference<CompletableFuture<AccessToken>> inFlight = new AtomicReference<>();
+  private volatile AccessToken current;
+
+  private final Counter hitCounter;
+  private final Counter missCounter;
+  private final Timer refreshTimer;
+
+  public OneDriveTokenManager(MeterRegistry meterRegistry,
+                              @Qualifier("fileTaskExecutor") TaskExecutor fileTaskExecutor,
+                              @Qualifier("graphHttpClient") OkHttpClient httpClient) {
+    this.httpClient = httpClient;
+    this.fileTaskExecutor = fileTaskExecutor;
+    this.hitCounter = Counter.builder("onedrive.token.requests").tag("result", "hit")
+        .description("OneDrive access token served from cache").register(meterRegistry);
+    this.missCounter = Counter.builder("onedrive.token.requests").tag("result", "miss")
+        .description("OneDrive access token requests that had to wait for a new token").register(meterRegistry);
+    this.refreshTimer = Timer.builder("onedrive.token.refresh")
+        .description("Time taken to fetch a new OneDrive access token").register(meterRegistry);
+  }
+
+  public String getAccessToken() throws IOException {
+    AccessToken token = current;
+    long now = System.currentTimeMillis();
+
+    if (token != null && now < token.expiresAt() - EXPIRY_SKEW_MS) {
+      hitCounter.increment();
+      if (now >= token.expiresAt() - REFRESH_WINDOW_MS) {
+        refresh(true);
+      }
+      return token.value();
+    }
+
+    missCounter.increment();
+    try {
+      return refresh(false).join().value();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException io) {
+        throw io.getCause();
+      }
+      throw new IOException("Failed to get access token", e.getCause());
+    }
+  }
+
+  /**
+   * Bỏ token hiện tại (vd: Graph trả 401) - lần gọi sau sẽ lấy token mới
+   */
+  public void invalidate() {
+    current = null;
+  }
+
+  /**
+   * Single-flight: nếu đã có request làm mới đang chạy thì dùng chung kết quả
+   */
+  private CompletableFuture<AccessToken> refresh(boolean background) {
+    CompletableFuture<AccessToken> promise = new CompletableFuture<>();
+    CompletableFuture<AccessToken> existing = inFlight.compareAndExchange(null, promise);
+    if (existing != null) {
+      return existing;
+    }
+
+    Runnable fetch = () -> {
+      try {
+        AccessToken token = refreshTimer.recordCallable(this::fetchToken);
+        current = token;
+        promise.complete(token);
+      } catch (IOException e) {
+        logger.error("Failed to refresh OneDrive access token: {}", e.getMessage());
+        promise.completeExceptionally(new UncheckedIOException(e));
+      } catch (Exception e) {
+        promise.completeExceptionally(e);
+      } finally {
+        inFlight.compareAndSet(promise, null);
+      }
+    };
+
+    if (!background) {
+      fetch.run();
+      return promise;
+    }
+
+    try {
+      fileTaskExecutor.execute(fetch);
+    } catch (TaskRejectedException e) {
+      // Pool đầy - bỏ lượt làm mới nền, lần gọi sau trong refresh window sẽ thử lại.
+      // Promise có thể đã được request khác dùng chung nên luôn phải complete
+      inFlight.compareAndSet(promise, null);
+      AccessToken token = current;
+      if (token != null) {
+        logger.debug("Executor busy, skipping background token refresh");
+        promise.complete(token);
+      } else {
+        fetch.run();
+      }
+    }
+    return promise;
+  }
+
+  private AccessToken fetchToken() throws IOException {
+    String tokenUrl = String.format(TOKEN_URL_TEMPLATE, tenantId);
+
+    RequestBody formBody = new FormBody.Builder()
+        .add("client_id", clientId)
+        .add("scope", "https://graph.microsoft.com/.default")
+        .add("client_secret", clientSecret)
+        .add("grant_type", "client_credentials")
+        .build();
+
+    Request request = new Request.Builder()
+        .url(tokenUrl)
+        .post(formBody)
+        .build();
+
+    try (Response response = httpClient.newCall(request).execute()) {
+      if (!response.isSuccessful()) {
+        String errorBody = response.body() != null ? response.body().string() : "No response body";
+        logger.error("Failed to get access token. Status: {}, Body: {}", response.code(), errorBody);
+        throw new IOException("Failed to get access token: " + response.code() + " - " + errorBody);
+      }
+
+      JsonNode json = objectMapper.readTree(response.body().string());
+      String accessToken = json.get("access_token").asText();
+      long expiresIn = json.has("expires_in") ? json.get("expires_in").asLong() : 3600;
+      logger.info("Successfully obtained access token (expires in {}s)", expiresIn);
+      return new AccessToken(accessToken, System.currentTimeMillis() + expiresIn * 1000);
+    }
+  }
+
+  private record AccessToken(String value, long expiresAt) {
+  }
+}
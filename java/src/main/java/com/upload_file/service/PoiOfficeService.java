@@ -12,13 +12,9 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.StreamUtils;
 
 import java.io.ByteArrayInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 
 @Service
 public class PoiOfficeService {
@@ -28,6 +24,9 @@ public class PoiOfficeService {
   @Autowired
   private FileStorageService fileStorageService;
 
+  @Autowired
+  private PhysicalFileService physicalFileService;
+
   /**
    * Chuyển đổi file Office thành HTML để preview
    */
@@ -51,21 +50,8 @@ public class PoiOfficeService {
   // ============= UTILITY METHODS =============
 
   private byte[] getFileData(FileDB fileDB) throws Exception {
-    if (fileDB.getPath() != null && !fileDB.getPath().equals("(db)")) {
-      // File stored on filesystem
-      Path filePath = Paths.get(fileDB.getPath());
-      if (!Files.exists(filePath)) {
-        throw new FileNotFoundException("File not found: " + fileDB.getPath());
-      }
-      return Files.readAllBytes(filePath);
-    } else {
-      // File stored in database
-      byte[] data = fileDB.getData();
-      if (data == null) {
-        throw new IllegalStateException("File data is null");
-      }
-      return data;
-    }
+    // Đọc qua storage backend (dùng chung lần đọc với các request preview đồng thời)
+    return physicalFileService.getFileData(fileDB, physicalFileService.determineStorageLevel(fileDB));
   }
 
   /**
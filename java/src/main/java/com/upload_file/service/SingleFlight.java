@@ -0,0 +1,92 @@
+package com.upload_file.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Gộp các thao tác giống nhau đang chạy đồng thời (cùng operation + key) thành một lần gọi backend.
+ * Request đầu tiên (leader) tự chạy trên thread của nó, các request đến sau chờ chung future và nhận cùng kết quả/lỗi.
+ * Không cache - future bị bỏ ngay khi leader xong, request sau đó sẽ chạy lại.
+ * Không dùng cho metadata (FileStorageService.getFile): trả một FileDB managed cho nhiều request có
+ * persistence context riêng là không an toàn, và lookup metadata không còn đọc blob.
+ */
+@Component
+public class SingleFlight {
+
+  private static final Logger logger = LoggerFactory.getLogger(SingleFlight.class);
+
+  public enum Operation {
+    BLOB_FETCH,
+    CONVERSION,
+    REMOTE_FETCH
+  }
+
+  @FunctionalInterface
+  public interface Call<T> {
+    T call() throws IOException;
+  }
+
+  private final MeterRegistry meterRegistry;
+  private final ConcurrentMap<FlightKey, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+  public SingleFlight(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T execute(Operation operation, String key, Call<T> call) throws IOException {
+    FlightKey flightKey = new FlightKey(operation, key);
+    CompletableFuture<Object> flight = new CompletableFuture<>();
+    CompletableFuture<Object> leader = inFlight.putIfAbsent(flightKey, flight);
+
+    if (leader != null) {
+      meterRegistry.counter("single.flight.coalesced", "operation", operation.name()).increment();
+      logger.debug("Waiting on in-flight {} for {}", operation, key);
+      return (T) await(leader, flightKey);
+    }
+
+    try {
+      T result = call.call();
+      flight.complete(result);
+      return result;
+    } catch (IOException | RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(flightKey, flight);
+    }
+  }
+
+  private Object await(CompletableFuture<Object> leader, FlightKey flightKey) throws IOException {
+    try {
+      return leader.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for " + flightKey.operation() + " of " + flightKey.key());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException io) {
+        throw io;
+      }
+      if (cause instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      if (cause instanceof Error error) {
+        throw error;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private record FlightKey(Operation operation, String key) {
+  }
+}
@@ -2,7 +2,9 @@ package com.upload_file.service;
 
 import com.upload_file.common.Constants;
 import com.upload_file.entity.FileDB;
+import com.upload_file.exception.RangeNotSatisfiableException;
 import com.upload_file.service.abstract_file.AbstractFileService;
+import com.upload_file.service.storage.StorageBackends;
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -18,7 +20,6 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 import java.util.Map;
 
 @Service
@@ -29,61 +30,24 @@ public class StreamRangeService extends AbstractFileService {
   @Value("${app.streaming.timeout:30000}")
   private int streamingTimeout;
 
+  @Value("${app.streaming.video.chunk-limit:10485760}")
+  private long videoChunkLimit;
+
   @Autowired
   OneDriveService oneDriveService;
 
-  // Helper method để parse range header
-  protected HttpRange parseRangeHeader(String rangeHeader, long fileSize) {
-    if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
-      return HttpRange.createByteRange(0, fileSize - 1);
-    }
-
-    String rangeValue = rangeHeader.substring(6); // Remove "bytes="
-    String[] parts = rangeValue.split("-");
-
-    long start = 0;
-    long end = fileSize - 1;
-
-    if (parts.length > 0 && !parts[0].isEmpty()) {
-      start = Long.parseLong(parts[0]);
-    }
-
-    if (parts.length > 1 && !parts[1].isEmpty()) {
-      end = Long.parseLong(parts[1]);
-    }
+  @Autowired
+  private OneDriveSegmentFetcher oneDriveSegmentFetcher;
 
-    return HttpRange.createByteRange(start, end);
-  }
+  @Autowired
+  private StorageBackends storageBackends;
 
   // =============== Method stream range video ===============
 
   protected ResponseEntity<?> streamFileFromDatabase(@NotNull FileDB file, HttpHeaders headers,
                                                      HttpServletResponse response) throws IOException {
-    byte[] fileData = file.getData();
-    if (fileData == null || fileData.length == 0) {
-      return ResponseEntity.status(HttpStatus.NOT_FOUND)
-          .body(Map.of("error", "Dữ liệu file không tồn tại"));
-    }
-
-    long fileLength = fileData.length;
-    List<HttpRange> ranges = headers.getRange();
-
     try {
-      if (ranges.isEmpty()) {
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(fileData)) {
-          return streamFullContent(inputStream, fileLength, response);
-        }
-      } else {
-        HttpRange range = ranges.get(0);
-        long start = range.getRangeStart(fileLength);
-        long end = range.getRangeEnd(fileLength);
-
-        StreamDataProvider dataProvider = (outputStream, startPos, length) -> {
-          streamBufferedData(fileData, outputStream, startPos, length);
-        };
-
-        return streamPartialContent(start, end, fileLength, response, dataProvider);
-      }
+      return streamDatabaseContent(file, headers.getFirst(HttpHeaders.RANGE), response);
     } catch (Exception e) {
       if (isClientDisconnected(e)) {
         logger.info("Client ngắt kết nối trong quá trình stream từ database");
@@ -100,12 +64,13 @@ public class StreamRangeService extends AbstractFileService {
       return ResponseEntity.status(HttpStatus.NOT_FOUND)
           .body(Map.of("error", "File không tồn tại trên filesystem"));
     }
-    return handleRangeRequest(filePath, headers.getRange(), response);
+    return handleRangeRequest(filePath, headers.getFirst(HttpHeaders.RANGE), response);
   }
 
-  protected ResponseEntity<?> streamFileFromOneDrive(String fileName, String disposition,
+  protected ResponseEntity<?> streamFileFromOneDrive(@NotNull FileDB fileDB, String disposition,
                                                      MediaType mediaType, String rangeHeader,
                                                      HttpServletResponse response) {
+    String fileName = fileDB.getName();
     InputStream inputStream = null;
 
     try {
@@ -114,7 +79,19 @@ public class StreamRangeService extends AbstractFileService {
         return null;
       }
 
-      inputStream = oneDriveService.streamFileWithRange(fileName, rangeHeader);
+      if (rangeHeader != null) {
+        // Range (kể cả nhiều range) xử lý như các tier khác - mỗi range là một GET tới downloadUrl
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition);
+        response.setHeader(HttpHeaders.CONTENT_TYPE, mediaType.toString());
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("Cache-Control", "public, max-age=3600");
+        long fileSize = fileDB.getSize() != null
+            ? fileDB.getSize() : oneDriveService.getFileSize(fileDB.getOneDriveId(), fileName);
+        return streamRanges(rangeHeader, fileSize, response,
+            (outputStream, start, length) -> streamOneDriveRange(fileDB, outputStream, start, length));
+      }
+
+      inputStream = oneDriveService.streamFileWithRange(fileDB.getOneDriveId(), fileName, null);
 
       response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition);
       response.setHeader(HttpHeaders.CONTENT_TYPE, mediaType.toString());
@@ -207,11 +184,11 @@ public class StreamRangeService extends AbstractFileService {
         fileSize = fileDB.getSize();
       } else {
         try {
-          fileSize = oneDriveService.getFileSize(fileName);
+          fileSize = oneDriveService.getFileSize(fileDB.getOneDriveId(), fileName);
         } catch (Exception e) {
           logger.error("Failed to get file size from OneDrive: {}", e.getMessage());
           // Fallback to non-range streaming
-          return streamFileFromOneDrive(fileName, disposition, mediaType, null, response);
+          return streamFileFromOneDrive(fileDB, disposition, mediaType, null, response);
         }
       }
 
@@ -221,11 +198,13 @@ public class StreamRangeService extends AbstractFileService {
       long end = range.getRangeEnd(fileSize);
       long contentLength = end - start + 1;
 
-      // Giới hạn chunk size cho video streaming để tránh timeout
-      long maxChunkSize = Constants.MAX_DB_SIZE; // 10MB
-      if (contentLength > maxChunkSize) {
-        end = start + maxChunkSize - 1;
-        contentLength = maxChunkSize;
+      // Giới hạn mỗi response, kết thúc ở biên segment để request sau của player bắt đầu đúng segment đã tải trước
+      if (contentLength > videoChunkLimit) {
+        long segmentSize = oneDriveSegmentFetcher.getSegmentSize();
+        long limitEnd = start + videoChunkLimit;
+        long alignedEnd = Math.max(limitEnd - limitEnd % segmentSize, (start / segmentSize + 1) * segmentSize);
+        end = Math.min(end, alignedEnd - 1);
+        contentLength = end - start + 1;
       }
 
       // Set response headers for partial content
@@ -237,11 +216,8 @@ public class StreamRangeService extends AbstractFileService {
       response.setHeader("Accept-Ranges", "bytes");
       response.setHeader("Cache-Control", "public, max-age=3600");
 
-      // Tạo range header cho OneDrive request
-      String oneDriveRangeHeader = String.format("bytes=%d-%d", start, end);
-
       try {
-        inputStream = oneDriveService.streamFileWithRange(fileName, oneDriveRangeHeader);
+        inputStream = oneDriveSegmentFetcher.openRange(fileDB, buildETag(fileDB), fileSize, start, contentLength);
       } catch (Exception e) {
         logger.error("Failed to get OneDrive stream: {}", e.getMessage());
         if (!response.isCommitted()) {
@@ -300,6 +276,8 @@ public class StreamRangeService extends AbstractFileService {
         throw e;
       }
 
+    } catch (RangeNotSatisfiableException e) {
+      return rangeNotSatisfiable(response, e.getFileSize());
     } catch (Exception e) {
       logger.error("Error streaming video file with range: {} - {}", fileName, e.getMessage(), e);
 
@@ -328,6 +306,14 @@ public class StreamRangeService extends AbstractFileService {
     }
   }
 
+  private void streamOneDriveRange(@NotNull FileDB fileDB, ServletOutputStream outputStream,
+                                   long start, long length) throws IOException {
+    String rangeHeader = String.format("bytes=%d-%d", start, start + length - 1);
+    try (InputStream inputStream = oneDriveService.streamFileWithRange(fileDB.getOneDriveId(), fileDB.getName(), rangeHeader)) {
+      streamData(inputStream, outputStream, 0, length);
+    }
+  }
+
   // =============== Method stream range text/plain ===============
   protected ResponseEntity<?> handleTextFileStreaming(FileDB fileDB,
                                                       @NotNull HttpServletRequest request,
@@ -346,7 +332,12 @@ public class StreamRangeService extends AbstractFileService {
   private ResponseEntity<?> handleTextFileWithRange(FileDB fileDB, String rangeHeader,
                                                     HttpServletResponse response) throws IOException {
     long fileSize = fileDB.getSize();
-    HttpRange range = parseRangeHeader(rangeHeader, fileSize);
+    HttpRange range;
+    try {
+      range = parseRangeHeader(rangeHeader, fileSize);
+    } catch (RangeNotSatisfiableException e) {
+      return rangeNotSatisfiable(response, fileSize);
+    }
     long start = range.getRangeStart(fileSize);
     long end = range.getRangeEnd(fileSize);
 
@@ -389,38 +380,11 @@ public class StreamRangeService extends AbstractFileService {
     return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).build();
   }
 
-  private InputStream getInputStreamByStorageLevel(FileDB fileDB, long start, long end) throws IOException {
-    Constants.StorageLevel level = checkStorageLevel(fileDB.getSize());
-
-    switch (level) {
-      case ONEDRIVE:
-        String rangeHeader = String.format("bytes=%d-%d", start, end);
-        return oneDriveService.streamFileWithRange(fileDB.getName(), rangeHeader);
-
-      case SYSTEM:
-        Path filePath = Paths.get(fileDB.getPath());
-        FileInputStream fis = new FileInputStream(filePath.toFile());
-        if (start > 0) {
-          long skipped = fis.skip(start);
-          if (skipped != start) {
-            fis.close();
-            throw new IOException("Could not skip to start position: " + start);
-          }
-        }
-        return new BoundedInputStream(fis, end - start + 1);
-
-      case DATABASE:
-        byte[] data = fileDB.getData();
-        int startInt = (int) Math.min(start, data.length);
-        int endInt = (int) Math.min(end + 1, data.length);
-        int length = endInt - startInt;
-        return new ByteArrayInputStream(data, startInt, length);
-
-      default:
-        throw new IOException("Unknown storage level: " + level);
-    }
+  private InputStream getInputStreamByStorageLevel(@NotNull FileDB fileDB, long start, long end) throws IOException {
+    return storageBackends.forFile(fileDB).openRange(fileDB, start, end - start + 1);
   }
 
+
   private ResponseEntity<?> streamTextFileBuffered(FileDB fileDB, HttpServletResponse response) throws IOException {
     Constants.StorageLevel level = checkStorageLevel(fileDB.getSize());
 
@@ -480,56 +444,6 @@ public class StreamRangeService extends AbstractFileService {
   }
 
   private InputStream getLimitedInputStreamByStorageLevel(FileDB fileDB, Constants.StorageLevel level, long maxBytes) throws IOException {
-    return switch (level) {
-      case ONEDRIVE -> {
-        String rangeHeader = String.format("bytes=0-%d", maxBytes - 1);
-        yield oneDriveService.streamFileWithRange(fileDB.getName(), rangeHeader);
-      }
-      case SYSTEM -> {
-        Path filePath = Paths.get(fileDB.getPath());
-        FileInputStream fis = new FileInputStream(filePath.toFile());
-        yield new BoundedInputStream(fis, maxBytes);
-      }
-      case DATABASE -> {
-        byte[] data = fileDB.getData();
-        int length = (int) Math.min(data.length, maxBytes);
-        yield new ByteArrayInputStream(data, 0, length);
-      }
-      default -> throw new IOException("Unknown storage level: " + level);
-    };
-  }
-
-  protected static class BoundedInputStream extends FilterInputStream {
-    private long remaining;
-
-    protected BoundedInputStream(InputStream in, long maxBytes) {
-      super(in);
-      this.remaining = maxBytes;
-    }
-
-    @Override
-    public int read() throws IOException {
-      if (remaining <= 0) {
-        return -1;
-      }
-      int result = super.read();
-      if (result != -1) {
-        remaining--;
-      }
-      return result;
-    }
-
-    @Override
-    public int read(byte[] b, int off, int len) throws IOException {
-      if (remaining <= 0) {
-        return -1;
-      }
-      len = (int) Math.min(len, remaining);
-      int result = super.read(b, off, len);
-      if (result > 0) {
-        remaining -= result;
-      }
-      return result;
-    }
+    return storageBackends.forLevel(level).openRange(fileDB, 0, maxBytes);
   }
 }
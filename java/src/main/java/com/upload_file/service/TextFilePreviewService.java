@@ -2,7 +2,9 @@ package com.upload_file.service;
 
 import com.upload_file.common.Constants;
 import com.upload_file.entity.FileDB;
+import com.upload_file.exception.RangeNotSatisfiableException;
 import com.upload_file.service.abstract_file.AbstractStreamingService;
+import com.upload_file.service.storage.StorageBackends;
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -17,7 +19,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
-import java.nio.file.Paths;
 
 /**
  * Service chỉ xử lý preview text files
@@ -28,10 +29,10 @@ public class TextFilePreviewService extends AbstractStreamingService {
   private static final Logger logger = LoggerFactory.getLogger(TextFilePreviewService.class);
 
   @Autowired
-  private OneDriveService oneDriveService;
+  private PhysicalFileService physicalFileService;
 
   @Autowired
-  private PhysicalFileService physicalFileService;
+  private StorageBackends storageBackends;
 
   /**
    * Handle text file streaming với range support
@@ -54,7 +55,12 @@ public class TextFilePreviewService extends AbstractStreamingService {
   private ResponseEntity<?> handleTextFileWithRange(@NotNull FileDB fileDB, String rangeHeader,
                                                     HttpServletResponse response) throws IOException {
     long fileSize = fileDB.getSize();
-    HttpRange range = parseRangeHeader(rangeHeader, fileSize);
+    HttpRange range;
+    try {
+      range = parseRangeHeader(rangeHeader, fileSize);
+    } catch (RangeNotSatisfiableException e) {
+      return rangeNotSatisfiable(response, fileSize);
+    }
     long start = range.getRangeStart(fileSize);
     long end = range.getRangeEnd(fileSize);
 
@@ -165,95 +171,16 @@ public class TextFilePreviewService extends AbstractStreamingService {
    * Get InputStream theo storage level với range
    */
   private InputStream getInputStreamByStorageLevel(@NotNull FileDB fileDB, long start, long end) throws IOException {
-    Constants.StorageLevel level = physicalFileService.determineStorageLevel(fileDB);
-
-    return switch (level) {
-      case ONEDRIVE -> {
-        String rangeHeader = String.format("bytes=%d-%d", start, end);
-        yield oneDriveService.streamFileWithRange(fileDB.getName(), rangeHeader);
-      }
-      case SYSTEM -> {
-        var filePath = Paths.get(fileDB.getPath());
-        FileInputStream fis = new FileInputStream(filePath.toFile());
-        if (start > 0) {
-          long skipped = fis.skip(start);
-          if (skipped != start) {
-            fis.close();
-            throw new IOException("Could not skip to start position: " + start);
-          }
-        }
-        yield new BoundedInputStream(fis, end - start + 1);
-      }
-      case DATABASE -> {
-        byte[] data = fileDB.getData();
-        int startInt = (int) Math.min(start, data.length);
-        int endInt = (int) Math.min(end + 1, data.length);
-        int length = endInt - startInt;
-        yield new ByteArrayInputStream(data, startInt, length);
-      }
-      default -> throw new IOException("Unknown storage level: " + level);
-    };
+    return storageBackends.forFile(fileDB).openRange(fileDB, start, end - start + 1);
   }
 
+
   /**
    * Get limited InputStream theo storage level
    */
   private InputStream getLimitedInputStreamByStorageLevel(@NotNull FileDB fileDB,
                                                           Constants.StorageLevel level,
                                                           long maxBytes) throws IOException {
-    return switch (level) {
-      case ONEDRIVE -> {
-        String rangeHeader = String.format("bytes=0-%d", maxBytes - 1);
-        yield oneDriveService.streamFileWithRange(fileDB.getName(), rangeHeader);
-      }
-      case SYSTEM -> {
-        var filePath = Paths.get(fileDB.getPath());
-        FileInputStream fis = new FileInputStream(filePath.toFile());
-        yield new BoundedInputStream(fis, maxBytes);
-      }
-      case DATABASE -> {
-        byte[] data = fileDB.getData();
-        int length = (int) Math.min(data.length, maxBytes);
-        yield new ByteArrayInputStream(data, 0, length);
-      }
-      default -> throw new IOException("Unknown storage level: " + level);
-    };
-  }
-
-  /**
-   * Bounded InputStream class
-   */
-  protected static class BoundedInputStream extends FilterInputStream {
-    private long remaining;
-
-    protected BoundedInputStream(InputStream in, long maxBytes) {
-      super(in);
-      this.remaining = maxBytes;
-    }
-
-    @Override
-    public int read() throws IOException {
-      if (remaining <= 0) {
-        return -1;
-      }
-      int result = super.read();
-      if (result != -1) {
-        remaining--;
-      }
-      return result;
-    }
-
-    @Override
-    public int read(byte[] b, int off, int len) throws IOException {
-      if (remaining <= 0) {
-        return -1;
-      }
-      len = (int) Math.min(len, remaining);
-      int result = super.read(b, off, len);
-      if (result > 0) {
-        remaining -= result;
-      }
-      return result;
-    }
+    return storageBackends.forLevel(level).openRange(fileDB, 0, maxBytes);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,97 @@
+package com.upload_file.service;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Trạng thái một chunked upload: layout khai báo, bitmap chunk đã nhận và thời điểm hoạt động cuối
+ */
+@Getter
+public class UploadSession {
+
+  private final String uploadId;
+  private final String username;
+  private final String filename;
+  private final String contentType;
+  private final long totalSize;     // -1 nếu client không khai báo (chế độ chunk_N)
+  private final int chunkSize;      // -1 nếu client không khai báo (chế độ chunk_N)
+  private final String checksum;    // SHA-256 hex, có thể null
+  private final Path directory;
+  private final Path target;        // file đích đã pre-allocate, null với chế độ chunk_N
+  private int totalChunks;
+  private volatile long lastActivity;
+  @Getter(AccessLevel.NONE)
+  private final BitSet received;
+
+  public UploadSession(String uploadId, String username, String filename, String contentType,
+                       long totalSize, int chunkSize, int totalChunks, String checksum,
+                       Path directory, Path target, long lastActivity) {
+    this.uploadId = uploadId;
+    this.username = username;
+    this.filename = filename;
+    this.contentType = contentType;
+    this.totalSize = totalSize;
+    this.chunkSize = chunkSize;
+    this.totalChunks = totalChunks;
+    this.checksum = checksum;
+    this.directory = directory;
+    this.target = target;
+    this.lastActivity = lastActivity;
+    this.received = new BitSet(Math.max(totalChunks, 0));
+  }
+
+  public boolean isPreallocated() {
+    return target != null;
+  }
+
+  public void touch() {
+    lastActivity = System.currentTimeMillis();
+  }
+
+  // Dùng khi replay journal - giữ thời điểm hoạt động mới nhất
+  public void restoreActivity(long timestamp) {
+    if (timestamp > lastActivity) {
+      lastActivity = timestamp;
+    }
+  }
+
+  public synchronized int getTotalChunks() {
+    return totalChunks;
+  }
+
+  public synchronized void expandTo(int chunks) {
+    if (!isPreallocated() && chunks > totalChunks) {
+      totalChunks = chunks;
+    }
+  }
+
+  public synchronized void markReceived(int chunkIndex) {
+    received.set(chunkIndex);
+  }
+
+  public synchronized boolean isReceived(int chunkIndex) {
+    return received.get(chunkIndex);
+  }
+
+  public synchronized int firstMissingChunk() {
+    int missing = received.nextClearBit(0);
+    return missing < totalChunks ? missing : -1;
+  }
+
+  public synchronized List<Integer> missingChunks() {
+    List<Integer> missing = new ArrayList<>(Math.max(totalChunks - received.cardinality(), 0));
+    for (int i = received.nextClearBit(0); i < totalChunks; i = received.nextClearBit(i + 1)) {
+      missing.add(i);
+    }
+    return missing;
+  }
+
+  public synchronized List<Integer> receivedChunks() {
+    return received.stream().boxed().toList();
+  }
+}
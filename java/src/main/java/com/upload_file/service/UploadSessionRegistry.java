@@ -0,0 +1,337 @@
+package com.upload_file.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry các upload session: index trong bộ nhớ (Caffeine, hết hạn theo last-activity)
+ * + journal append-only để khôi phục sau khi restart.
+ * Journal được ghi lại (compact) từ các session còn sống khi vượt journal-max-kb hoặc khi không còn session nào.
+ * <p>
+ * Journal format (tab-separated):
+ * C  id  ts  user  filename  type  totalSize  chunkSize  totalChunks  checksum  target
+ * R  id  ts  chunkIndex
+ * D  id  ts
+ */
+@Component
+public class UploadSessionRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(UploadSessionRegistry.class);
+  private static final String JOURNAL_FILE = "upload-sessions.journal";
+  private static final String NONE = "~"; // URLEncoder luôn encode ~ nên không trùng giá trị thật
+
+  private final Path chunksRoot;
+
+  @Value("${app.upload.session-ttl-hours:24}")
+  private long sessionTtlHours;
+
+  @Value("${app.upload.journal-max-kb:1024}")
+  private long journalMaxKb;
+
+  private Cache<String, UploadSession> sessions;
+  private BufferedWriter journal;
+  private long journalBytes;
+  private long compactThreshold;
+
+  public UploadSessionRegistry() {
+    this(Paths.get(System.getProperty("java.io.tmpdir"), "chunks"), 24, 1024);
+  }
+
+  // Cho test - thư mục riêng thay vì tmpdir dùng chung
+  UploadSessionRegistry(Path chunksRoot, long sessionTtlHours, long journalMaxKb) {
+    this.chunksRoot = chunksRoot.toAbsolutePath().normalize();
+    this.sessionTtlHours = sessionTtlHours;
+    this.journalMaxKb = journalMaxKb;
+  }
+
+  @PostConstruct
+  public void init() throws IOException {
+    long ttlNanos = TimeUnit.HOURS.toNanos(sessionTtlHours);
+    sessions = Caffeine.newBuilder()
+        .expireAfter(new Expiry<String, UploadSession>() {
+          @Override
+          public long expireAfterCreate(String key, UploadSession session, long currentTime) {
+            // Session replay từ journal chỉ còn phần TTL chưa dùng hết
+            long idleNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - session.getLastActivity());
+            return Math.max(ttlNanos - idleNanos, 0);
+          }
+
+          @Override
+          public long expireAfterUpdate(String key, UploadSession session, long currentTime, long currentDuration) {
+            return ttlNanos;
+          }
+
+          @Override
+          public long expireAfterRead(String key, UploadSession session, long currentTime, long currentDuration) {
+            return ttlNanos;
+          }
+        })
+        // Scheduler để session hết hạn được dọn đúng lúc, không đợi lần truy cập cache kế tiếp
+        .scheduler(Scheduler.systemScheduler())
+        .removalListener(this::onRemoval)
+        .build();
+
+    Files.createDirectories(chunksRoot);
+    Map<String, UploadSession> restored = replayJournal();
+    openJournal();
+    sessions.putAll(restored);
+    logger.info("Upload session registry ready: {} active sessions", sessions.estimatedSize());
+  }
+
+  @PreDestroy
+  public void close() {
+    try {
+      synchronized (this) {
+        if (journal != null) {
+          journal.close();
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Error closing upload session journal: {}", e.getMessage());
+    }
+  }
+
+  public Path getChunksRoot() {
+    return chunksRoot;
+  }
+
+  /**
+   * uploadId chỉ chấp nhận UUID do server cấp - giá trị này dùng làm tên thư mục và được ghi vào journal
+   */
+  public static boolean isValidUploadId(String uploadId) {
+    if (uploadId == null) {
+      return false;
+    }
+    try {
+      return UUID.fromString(uploadId).toString().equals(uploadId);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  public Path sessionDirectory(String username, String uploadId) {
+    if (!isValidUploadId(uploadId)) {
+      throw new IllegalArgumentException("Invalid uploadId");
+    }
+    Path dir = chunksRoot.resolve(username).resolve(uploadId).normalize();
+    // Phải đúng chunksRoot/<user>/<uploadId> - chặn username chứa ".." hoặc dấu phân cách
+    if (!dir.startsWith(chunksRoot) || !chunksRoot.equals(dir.getParent().getParent())) {
+      throw new IllegalArgumentException("Invalid upload directory");
+    }
+    return dir;
+  }
+
+  /**
+   * Lấy session của user - trả null nếu không có hoặc thuộc user khác
+   */
+  public UploadSession get(String uploadId, String username) {
+    UploadSession session = sessions.getIfPresent(uploadId);
+    if (session == null || !session.getUsername().equals(username)) {
+      return null;
+    }
+    session.touch();
+    return session;
+  }
+
+  public UploadSession register(@NotNull UploadSession session) throws IOException {
+    UploadSession existing = sessions.asMap().putIfAbsent(session.getUploadId(), session);
+    if (existing != null) {
+      return existing;
+    }
+    append(createEntry(session));
+    return session;
+  }
+
+  public void markReceived(@NotNull UploadSession session, int chunkIndex) throws IOException {
+    session.markReceived(chunkIndex);
+    session.touch();
+    append(String.join("\t", "R", session.getUploadId(), String.valueOf(session.getLastActivity()),
+        String.valueOf(chunkIndex)));
+  }
+
+  /**
+   * Upload đã hoàn tất - xóa khỏi index (file tạm do caller dọn)
+   */
+  public void complete(@NotNull UploadSession session) {
+    sessions.invalidate(session.getUploadId());
+  }
+
+  public boolean isActiveDirectory(Path directory) {
+    return sessions.asMap().values().stream().anyMatch(s -> s.getDirectory().equals(directory));
+  }
+
+  private void onRemoval(String uploadId, UploadSession session, RemovalCause cause) {
+    if (uploadId == null || session == null) {
+      return;
+    }
+    try {
+      append(String.join("\t", "D", uploadId, String.valueOf(System.currentTimeMillis())));
+    } catch (IOException e) {
+      logger.warn("Could not journal removal of upload session {}: {}", uploadId, e.getMessage());
+    }
+
+    if (cause == RemovalCause.EXPIRED) {
+      FileUtils.deleteQuietly(session.getDirectory().toFile());
+      logger.info("Upload session {} ({}) expired, removed {}", uploadId, session.getFilename(), session.getDirectory());
+    }
+
+    // Không còn session nào - journal chỉ còn là lịch sử, ghi lại thành rỗng
+    if (sessions.estimatedSize() == 0) {
+      try {
+        compact();
+      } catch (IOException e) {
+        logger.warn("Could not compact upload session journal: {}", e.getMessage());
+      }
+    }
+  }
+
+  private synchronized void append(String line) throws IOException {
+    if (journal == null) {
+      return;
+    }
+    journal.write(line);
+    journal.newLine();
+    journal.flush();
+    journalBytes += line.length() + 1;
+    if (journalBytes > compactThreshold) {
+      compact();
+    }
+  }
+
+  /**
+   * Ghi lại journal chỉ gồm các session còn trong index (C + các R đã nhận)
+   */
+  private synchronized void compact() throws IOException {
+    if (journal == null) {
+      return;
+    }
+    journal.close();
+    journal = null;
+    try {
+      writeSnapshot(sessions.asMap().values());
+    } finally {
+      openJournal();
+    }
+    logger.debug("Compacted upload session journal to {} bytes", journalBytes);
+  }
+
+  private void openJournal() throws IOException {
+    Path journalFile = chunksRoot.resolve(JOURNAL_FILE);
+    journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    journalBytes = Files.size(journalFile);
+    // Snapshot các session còn sống đã lớn hơn ngưỡng thì đợi journal gấp đôi mới compact lại,
+    // tránh ghi lại toàn bộ journal ở mỗi lần append
+    compactThreshold = Math.max(journalMaxKb * 1024, journalBytes * 2);
+  }
+
+  private void writeSnapshot(Collection<UploadSession> live) throws IOException {
+    Path journalFile = chunksRoot.resolve(JOURNAL_FILE);
+    Path compacted = chunksRoot.resolve(JOURNAL_FILE + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+      for (UploadSession session : live) {
+        writer.write(createEntry(session));
+        writer.newLine();
+        List<Integer> received = session.receivedChunks();
+        for (int chunkIndex : received) {
+          writer.write(String.join("\t", "R", session.getUploadId(),
+              String.valueOf(session.getLastActivity()), String.valueOf(chunkIndex)));
+          writer.newLine();
+        }
+      }
+    }
+    Files.move(compacted, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Đọc lại journal, dựng lại các session còn sống rồi ghi đè journal bằng bản đã compact
+   */
+  private Map<String, UploadSession> replayJournal() throws IOException {
+    Map<String, UploadSession> restored = new LinkedHashMap<>();
+    Path journalFile = chunksRoot.resolve(JOURNAL_FILE);
+    if (!Files.exists(journalFile)) {
+      return restored;
+    }
+
+    for (String line : Files.readAllLines(journalFile, StandardCharsets.UTF_8)) {
+      String[] parts = line.split("\t");
+      try {
+        switch (parts[0]) {
+          case "C" -> {
+            String username = decode(parts[3]);
+            String target = decode(parts[10]);
+            restored.put(parts[1], new UploadSession(parts[1], username, decode(parts[4]), decode(parts[5]),
+                Long.parseLong(parts[6]), Integer.parseInt(parts[7]), Integer.parseInt(parts[8]),
+                decode(parts[9]), sessionDirectory(username, parts[1]),
+                target != null ? Paths.get(target) : null, Long.parseLong(parts[2])));
+          }
+          case "R" -> {
+            UploadSession session = restored.get(parts[1]);
+            if (session != null) {
+              int chunkIndex = Integer.parseInt(parts[3]);
+              session.expandTo(chunkIndex + 1);
+              session.markReceived(chunkIndex);
+              session.restoreActivity(Long.parseLong(parts[2]));
+            }
+          }
+          case "D" -> restored.remove(parts[1]);
+          default -> logger.debug("Skipping unknown journal entry: {}", line);
+        }
+      } catch (RuntimeException e) {
+        logger.warn("Skipping malformed journal entry: {}", line);
+      }
+    }
+
+    // Bỏ session mà thư mục tạm đã mất
+    restored.values().removeIf(session -> !Files.isDirectory(session.getDirectory()));
+
+    writeSnapshot(restored.values());
+
+    logger.info("Restored {} upload sessions from journal", restored.size());
+    return restored;
+  }
+
+  private String createEntry(UploadSession session) {
+    return String.join("\t", "C", session.getUploadId(), String.valueOf(session.getLastActivity()),
+        encode(session.getUsername()), encode(session.getFilename()), encode(session.getContentType()),
+        String.valueOf(session.getTotalSize()), String.valueOf(session.getChunkSize()),
+        String.valueOf(session.getTotalChunks()), encode(session.getChecksum()),
+        session.isPreallocated() ? encode(session.getTarget().toString()) : NONE);
+  }
+
+  private static String encode(String value) {
+    return value == null ? NONE : URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private static String decode(String value) {
+    return NONE.equals(value) ? null : URLDecoder.decode(value, StandardCharsets.UTF_8);
+  }
+}
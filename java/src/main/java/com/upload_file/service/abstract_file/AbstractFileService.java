@@ -1,40 +1,61 @@
 package com.upload_file.service.abstract_file;
 
+import com.upload_file.common.ByteRanges;
 import com.upload_file.common.Constants;
 import com.upload_file.entity.FileDB;
+import com.upload_file.entity.FileContent;
+import com.upload_file.exception.RangeNotSatisfiableException;
+import com.upload_file.service.FileContentStore;
+import com.upload_file.service.MappedSegmentCache;
 import io.micrometer.core.annotation.Timed;
 import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.apache.catalina.connector.ClientAbortException;
+import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.context.request.async.AsyncRequestNotUsableException;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 public abstract class AbstractFileService {
   private static final Logger logger = LoggerFactory.getLogger(AbstractFileService.class);
 
+  // Request attributes của Tomcat cho sendfile (xem org.apache.catalina.Globals)
+  private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+  @Autowired
+  private MappedSegmentCache mappedSegmentCache;
+
+  @Autowired
+  private FileContentStore fileContentStore;
+
   public String currentTimeCreate() {
     return String.valueOf(System.currentTimeMillis());
   }
 
   public Constants.StorageLevel checkStorageLevel(long fileSize) {
-    if (fileSize <= Constants.MAX_DB_SIZE) {
-      return Constants.StorageLevel.DATABASE;
-    } else if (fileSize <= Constants.MAX_SYSTEM_SIZE) {
-      return Constants.StorageLevel.SYSTEM;
-    } else {
-      return Constants.StorageLevel.ONEDRIVE;
-    }
+    return Constants.storageLevelOf(fileSize);
   }
 
   // Common streaming methods
@@ -81,30 +102,39 @@ public abstract class AbstractFileService {
     }
   }
 
-  @Timed(value = "file.stream_data_random_access", description = "Time taken to stream data from random access file")
-  private void streamDataFromRandomAccess(RandomAccessFile randomAccessFile,
-                                            ServletOutputStream outputStream, long length) throws IOException {
-    byte[] buffer = new byte[Constants.STREAM_BUFFER_SIZE];
-    long bytesRead = 0;
-    int read;
-
-    while (bytesRead < length && (read = randomAccessFile.read(buffer, 0,
-        (int) Math.min(buffer.length, length - bytesRead))) != -1) {
-      try {
-        outputStream.write(buffer, 0, read);
-        bytesRead += read;
+  /**
+   * Gửi vùng [start, start + length) của file mà không copy qua heap:
+   * dùng sendfile của Tomcat nếu connector hỗ trợ, nếu không thì đọc từ các segment đã mmap (MappedSegmentCache).
+   * Status và Content-Length phải được set trước khi gọi.
+   */
+  @Timed(value = "file.send_file_region", description = "Time taken to send a file region")
+  protected void sendFileRegion(Path path, long start, long length, HttpServletResponse response) throws IOException {
+    HttpServletRequest request = currentRequest();
+    if (request != null && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+      // Tomcat tự gửi file sau khi servlet trả về - không được ghi gì vào output stream
+      request.setAttribute(SENDFILE_FILENAME_ATTR, path.toAbsolutePath().toString());
+      request.setAttribute(SENDFILE_START_ATTR, start);
+      request.setAttribute(SENDFILE_END_ATTR, start + length);
+      return;
+    }
 
-        if (bytesRead % Constants.FLUSH_INTERVAL == 0) {
-          outputStream.flush();
-        }
-      } catch (IOException e) {
-        if (isClientDisconnected(e)) {
-          logger.info("Client ngắt kết nối trong quá trình stream partial data");
-          break;
-        }
-        throw e;
+    try {
+      mappedSegmentCache.transfer(path, start, length, response.getOutputStream());
+      response.getOutputStream().flush();
+    } catch (IOException e) {
+      if (isClientDisconnected(e)) {
+        logger.info("Client ngắt kết nối trong quá trình stream file");
+        return;
       }
+      throw e;
+    }
+  }
+
+  private HttpServletRequest currentRequest() {
+    if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+      return attributes.getRequest();
     }
+    return null;
   }
 
   protected ResponseEntity<?> streamPartialContent(long start, long end, long totalLength,
@@ -168,17 +198,22 @@ public abstract class AbstractFileService {
         normalizedMessage.contains("unexpected end of stream");
   }
 
-  protected ResponseEntity<?> handleRangeRequest(Path path, List<HttpRange> ranges,
+  protected ResponseEntity<?> handleRangeRequest(Path path, String rangeHeader,
                                                  HttpServletResponse response) throws IOException {
     long fileLength = java.nio.file.Files.size(path);
 
     try {
+      List<ByteRanges.Range> ranges = ByteRanges.parse(rangeHeader, fileLength);
       if (ranges.isEmpty()) {
         return streamFullFileFromPath(path, fileLength, response);
+      } else if (ranges.size() == 1) {
+        return streamPartialFileFromPath(path, fileLength, ranges.get(0), response);
       } else {
-        HttpRange range = ranges.get(0);
-        return streamPartialFileFromPath(path, fileLength, range, response);
+        return streamMultipartRanges(ranges, fileLength, response,
+            (outputStream, start, length) -> mappedSegmentCache.transfer(path, start, length, outputStream));
       }
+    } catch (RangeNotSatisfiableException e) {
+      return rangeNotSatisfiable(response, fileLength);
     } catch (Exception e) {
       if (isClientDisconnected(e)) {
         logger.info("Client ngắt kết nối trong quá trình stream");
@@ -188,26 +223,188 @@ public abstract class AbstractFileService {
     }
   }
 
+  /**
+   * Stream bản copy local của file (vd: cache disk của OneDrive) qua cùng đường sendfile/mmap với tầng SYSTEM
+   */
+  protected ResponseEntity<?> streamLocalCopy(Path path, String disposition, MediaType mediaType,
+                                              String rangeHeader, HttpServletResponse response) throws IOException {
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition);
+    response.setHeader(HttpHeaders.CONTENT_TYPE, mediaType.toString());
+    response.setHeader("Accept-Ranges", "bytes");
+    response.setHeader("Cache-Control", "public, max-age=3600");
+    return handleRangeRequest(path, rangeHeader, response);
+  }
+
   protected ResponseEntity<?> streamFullFileFromPath(Path path, long fileLength,
                                                      HttpServletResponse response) throws IOException {
-    try (InputStream inputStream = java.nio.file.Files.newInputStream(path)) {
-      return streamFullContent(inputStream, fileLength, response);
+    response.setStatus(HttpStatus.OK.value());
+    response.setHeader("Content-Length", String.valueOf(fileLength));
+    sendFileRegion(path, 0, fileLength, response);
+    return ResponseEntity.ok().build();
+  }
+
+  protected ResponseEntity<?> streamPartialFileFromPath(Path path, long fileLength, ByteRanges.Range range,
+                                                        HttpServletResponse response) throws IOException {
+    response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+    response.setHeader("Content-Range", String.format("bytes %d-%d/%d", range.start(), range.end(), fileLength));
+    response.setHeader("Content-Length", String.valueOf(range.length()));
+    sendFileRegion(path, range.start(), range.length(), response);
+    return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).build();
+  }
+
+  /**
+   * Xử lý Range header cho nguồn dữ liệu bất kỳ: 200 nếu không có range, 206 một range,
+   * multipart/byteranges nếu nhiều range, 416 nếu không range nào hợp lệ
+   */
+  protected ResponseEntity<?> streamRanges(String rangeHeader, long totalLength, HttpServletResponse response,
+                                           StreamDataProvider dataProvider) throws IOException {
+    List<ByteRanges.Range> ranges;
+    try {
+      ranges = ByteRanges.parse(rangeHeader, totalLength);
+    } catch (RangeNotSatisfiableException e) {
+      return rangeNotSatisfiable(response, totalLength);
+    }
+
+    if (ranges.isEmpty()) {
+      response.setStatus(HttpStatus.OK.value());
+      response.setHeader("Content-Length", String.valueOf(totalLength));
+      try (ServletOutputStream outputStream = response.getOutputStream()) {
+        dataProvider.streamData(outputStream, 0, totalLength);
+        outputStream.flush();
+        return ResponseEntity.ok().build();
+      }
+    }
+    if (ranges.size() == 1) {
+      ByteRanges.Range range = ranges.get(0);
+      return streamPartialContent(range.start(), range.end(), totalLength, response, dataProvider);
     }
+    return streamMultipartRanges(ranges, totalLength, response, dataProvider);
   }
 
-  private ResponseEntity<?> streamPartialFileFromPath(Path path, long fileLength,
-                                                        HttpRange range, HttpServletResponse response) throws IOException {
-    long start = range.getRangeStart(fileLength);
-    long end = range.getRangeEnd(fileLength);
+  /**
+   * Stream file tầng DATABASE: chỉ đọc đúng các byte của range từ file_contents, không load cả blob
+   */
+  protected ResponseEntity<?> streamDatabaseContent(@NotNull FileDB file, String rangeHeader,
+                                                    HttpServletResponse response) throws IOException {
+    FileContent content = file.getContent();
+    // content là proxy lazy - getId() không kích hoạt load blob
+    Long length = content != null ? fileContentStore.getLength(content.getId()) : null;
+    if (length == null || length == 0) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND)
+          .body(Map.of("error", "Dữ liệu file không tồn tại"));
+    }
+
+    String contentId = content.getId();
+    return streamRanges(rangeHeader, length, response,
+        (outputStream, startPos, rangeLength) -> fileContentStore.copyRange(contentId, startPos, rangeLength, outputStream));
+  }
+
+  /**
+   * Ghi nhiều range thành multipart/byteranges (RFC 7233 4.1); Content-Length được tính trước
+   */
+  protected ResponseEntity<?> streamMultipartRanges(List<ByteRanges.Range> ranges, long totalLength,
+                                                    HttpServletResponse response,
+                                                    StreamDataProvider dataProvider) throws IOException {
+    String partType = response.getContentType() != null
+        ? response.getContentType() : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    String boundary = UUID.randomUUID().toString().replace("-", "");
+
+    byte[][] partHeaders = new byte[ranges.size()][];
+    long contentLength = 0;
+    for (int i = 0; i < ranges.size(); i++) {
+      ByteRanges.Range range = ranges.get(i);
+      String partHeader = "\r\n--" + boundary + "\r\n"
+          + "Content-Type: " + partType + "\r\n"
+          + "Content-Range: bytes " + range.start() + "-" + range.end() + "/" + totalLength + "\r\n\r\n";
+      partHeaders[i] = partHeader.getBytes(StandardCharsets.ISO_8859_1);
+      contentLength += partHeaders[i].length + range.length();
+    }
+    byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    contentLength += closing.length;
+
+    response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    response.setHeader("Content-Length", String.valueOf(contentLength));
 
-    StreamDataProvider dataProvider = (outputStream, startPos, length) -> {
-      try (RandomAccessFile randomAccessFile = new RandomAccessFile(path.toFile(), "r")) {
-        randomAccessFile.seek(startPos);
-        streamDataFromRandomAccess(randomAccessFile, outputStream, length);
+    try (ServletOutputStream outputStream = response.getOutputStream()) {
+      for (int i = 0; i < ranges.size(); i++) {
+        ByteRanges.Range range = ranges.get(i);
+        outputStream.write(partHeaders[i]);
+        dataProvider.streamData(outputStream, range.start(), range.length());
       }
-    };
+      outputStream.write(closing);
+      outputStream.flush();
+      return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).build();
+    }
+  }
+
+  protected ResponseEntity<?> rangeNotSatisfiable(HttpServletResponse response, long totalLength) {
+    response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+    response.setHeader("Content-Range", "bytes */" + totalLength);
+    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).build();
+  }
+
+  /**
+   * Strong validator của file: SHA-256 nội dung nếu đã có (cùng nội dung thì cùng ETag, kể cả khác bản ghi).
+   * Bản ghi cũ chưa có hash: file đã lưu không bị sửa tại chỗ nên id + size + thời điểm tạo xác định duy nhất nội dung
+   */
+  protected String buildETag(@NotNull FileDB file) {
+    if (file.getContentHash() != null && !file.getContentHash().isBlank()) {
+      return "\"" + file.getContentHash() + "\"";
+    }
+    return "\"" + file.getId() + "-" + file.getSize() + "-" + file.getCreationDate() + "\"";
+  }
 
-    return streamPartialContent(start, end, fileLength, response, dataProvider);
+  protected long getLastModified(@NotNull FileDB file) {
+    try {
+      return Long.parseLong(file.getCreationDate());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Set ETag/Last-Modified và xử lý If-None-Match/If-Modified-Since.
+   * Trả true nếu client đã có bản mới nhất - status (304/412) đã được set, không cần gửi body.
+   */
+  protected boolean checkNotModified(@NotNull FileDB file, HttpServletRequest request, HttpServletResponse response) {
+    return new ServletWebRequest(request, response).checkNotModified(buildETag(file), getLastModified(file));
+  }
+
+  /**
+   * If-Range: chỉ phục vụ Range khi validator khớp (ETag so sánh strong, hoặc đúng Last-Modified)
+   */
+  protected boolean isIfRangeSatisfied(@NotNull FileDB file, HttpServletRequest request) {
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    if (ifRange == null || ifRange.isBlank()) {
+      return true;
+    }
+    ifRange = ifRange.trim();
+    if (ifRange.startsWith("\"")) {
+      return ifRange.equals(buildETag(file));
+    }
+    if (ifRange.startsWith("W/")) {
+      return false; // weak ETag không dùng được cho If-Range
+    }
+    try {
+      long date = request.getDateHeader(HttpHeaders.IF_RANGE);
+      long lastModified = getLastModified(file);
+      return lastModified >= 0 && date / 1000 == lastModified / 1000;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Range đầu tiên của header - cho các luồng chỉ phục vụ một range (video OneDrive, text preview)
+   */
+  protected HttpRange parseRangeHeader(String rangeHeader, long fileSize) {
+    List<ByteRanges.Range> ranges = ByteRanges.parse(rangeHeader, fileSize);
+    if (ranges.isEmpty()) {
+      return HttpRange.createByteRange(0, fileSize - 1);
+    }
+    ByteRanges.Range range = ranges.get(0);
+    return HttpRange.createByteRange(range.start(), range.end());
   }
 
   protected String getFileNameWithoutExtension(String filename) {
@@ -220,15 +417,6 @@ public abstract class AbstractFileService {
     return lastDotIndex > 0 ? filename.substring(lastDotIndex) : "";
   }
 
-  protected Path generateUniqueFilePath(String filename) {
-    String nameWithoutExt = getFileNameWithoutExtension(filename);
-    String extension = getFileExtension(filename);
-    String timestamp = String.valueOf(System.currentTimeMillis());
-    String uniqueFilename = String.format("%s_%s%s", nameWithoutExt, timestamp, extension);
-
-    return Constants.uploadDir.resolve(uniqueFilename);
-  }
-
   /**
    * Set các header chung cho streaming
    *
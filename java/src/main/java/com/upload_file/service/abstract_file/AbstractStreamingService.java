@@ -6,14 +6,12 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.List;
 
 public abstract class AbstractStreamingService extends AbstractFileService {
 
@@ -39,28 +37,6 @@ public abstract class AbstractStreamingService extends AbstractFileService {
             extension.endsWith(".m4a");
   }
 
-  protected HttpRange parseRangeHeader(String rangeHeader, long fileSize) {
-    if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
-      return HttpRange.createByteRange(0, fileSize - 1);
-    }
-
-    String rangeValue = rangeHeader.substring(6); // Remove "bytes="
-    String[] parts = rangeValue.split("-");
-
-    long start = 0;
-    long end = fileSize - 1;
-
-    if (parts.length > 0 && !parts[0].isEmpty()) {
-      start = Long.parseLong(parts[0]);
-    }
-
-    if (parts.length > 1 && !parts[1].isEmpty()) {
-      end = Long.parseLong(parts[1]);
-    }
-
-    return HttpRange.createByteRange(start, end);
-  }
-
   protected ResponseEntity<?> streamFullContent(InputStream inputStream, long contentLength,
                                                 HttpServletResponse response) throws IOException {
     response.setStatus(HttpStatus.OK.value());
@@ -158,39 +134,6 @@ public abstract class AbstractStreamingService extends AbstractFileService {
     }
   }
 
-  protected ResponseEntity<?> handleRangeRequest(List<HttpRange> ranges, long fileLength,
-                                                 HttpServletResponse response,
-                                                 StreamDataProvider dataProvider) throws IOException {
-    try {
-      if (ranges.isEmpty()) {
-        // Stream full content
-        response.setStatus(HttpStatus.OK.value());
-        response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(fileLength));
-
-        try (ServletOutputStream outputStream = response.getOutputStream()) {
-          dataProvider.streamData(outputStream, 0, fileLength);
-
-          if (!response.isCommitted()) {
-            outputStream.flush();
-          }
-          return ResponseEntity.ok().build();
-        }
-      } else {
-        // Stream partial content
-        HttpRange range = ranges.get(0);
-        long start = range.getRangeStart(fileLength);
-        long end = range.getRangeEnd(fileLength);
-        return streamPartialContent(start, end, fileLength, response, dataProvider);
-      }
-    } catch (Exception e) {
-      if (isClientDisconnected(e)) {
-        logger.info("Client disconnected during range request");
-        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
-      }
-      throw e;
-    }
-  }
-
   @FunctionalInterface
   protected interface StreamDataProvider {
     void streamData(ServletOutputStream outputStream, long start, long length) throws IOException;
@@ -1,9 +1,13 @@
 package com.upload_file.service.abstract_file;
 
 import com.upload_file.common.UserIml;
+import com.upload_file.dto.ChunkInitRequest;
 import com.upload_file.dto.MergeRequest;
 import com.upload_file.dto.ResponseFile;
+import com.upload_file.dto.UploadPrecheckRequest;
 import com.upload_file.entity.FileDB;
+import com.upload_file.service.FileContentStore;
+import com.upload_file.service.UploadSessionRegistry;
 import com.upload_file.util.JwtUtil;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
@@ -14,6 +18,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public abstract class AbstractValidFile implements UserIml {
@@ -22,6 +27,9 @@ public abstract class AbstractValidFile implements UserIml {
   @Autowired
   private JwtUtil jwtUtil;
 
+  @Autowired
+  private FileContentStore fileContentStore;
+
   /**
    * Kiểm tra token có hợp lệ không
    * @param token chuỗi token cần kiểm tra
@@ -85,10 +93,13 @@ public abstract class AbstractValidFile implements UserIml {
 
   protected long getFilesize(@NotNull FileDB fileDB) {
     long fileSize = 0;
-    if (fileDB.getPath() != null && !fileDB.getPath().equals("(db)")) {
-      fileSize = fileDB.getSize() != null ? fileDB.getSize() : 0;
-    } else if (fileDB.getData() != null) {
-      fileSize = fileDB.getData().length;
+    // size có sẵn trong metadata; bản ghi cũ thiếu size thì hỏi LENGTH(data), không load blob
+    if (fileDB.getSize() != null) {
+      fileSize = fileDB.getSize();
+    } else if (fileDB.getContent() != null) {
+      // content là proxy lazy - getId() không kích hoạt load
+      Long length = fileContentStore.getLength(fileDB.getContent().getId());
+      fileSize = length != null ? length : 0;
     }
     return fileSize;
   }
@@ -119,6 +130,25 @@ public abstract class AbstractValidFile implements UserIml {
     if (request.filename == null || request.filename.trim().isEmpty()) return createErrorResponse("Filename cannot be empty", HttpStatus.BAD_REQUEST);
     return null;
   }
+  protected ResponseEntity<?> validateUploadId(String uploadId) {
+    if (uploadId != null && !UploadSessionRegistry.isValidUploadId(uploadId)) return createErrorResponse("Invalid uploadId", HttpStatus.BAD_REQUEST);
+    return null;
+  }
+
+  protected ResponseEntity<?> validateChunkInitRequest(ChunkInitRequest request,
+                                                       String authHeader) {
+    if (validateChunkToken(authHeader)) return createErrorResponse("Invalid or missing authentication token", HttpStatus.UNAUTHORIZED);
+    if (request.filename == null || request.filename.trim().isEmpty()) return createErrorResponse("Filename cannot be empty", HttpStatus.BAD_REQUEST);
+    if (request.totalSize <= 0 || request.chunkSize <= 0 || request.totalChunks <= 0) return createErrorResponse("Invalid upload layout", HttpStatus.BAD_REQUEST);
+    return null;
+  }
+
+  protected ResponseEntity<?> validatePrecheckRequest(UploadPrecheckRequest request) {
+    if (request.filename == null || request.filename.trim().isEmpty()) return createErrorResponse("Filename cannot be empty", HttpStatus.BAD_REQUEST);
+    if (request.size <= 0) return createErrorResponse("Invalid file size", HttpStatus.BAD_REQUEST);
+    if (request.hash == null || !request.hash.matches("[0-9a-fA-F]{64}")) return createErrorResponse("Hash must be SHA-256 hex", HttpStatus.BAD_REQUEST);
+    return null;
+  }
 
   // =============== METHOD CREATE ERROR RESPONSE ===============
   protected ResponseEntity<?> createErrorResponse(String errorMessage, HttpStatus status) {
@@ -170,6 +200,39 @@ public abstract class AbstractValidFile implements UserIml {
     response.put("status", "success");
     return ResponseEntity.ok(response);
   }
+  protected ResponseEntity<?> createChunkInitSuccessResponse(String uploadId, ChunkInitRequest request) {
+    Map<String, Object> response = new HashMap<>();
+    response.put("message", "Upload initialized");
+    response.put("uploadId", uploadId);
+    response.put("filename", request.filename);
+    response.put("totalSize", request.totalSize);
+    response.put("chunkSize", request.chunkSize);
+    response.put("totalChunks", request.totalChunks);
+    response.put("status", "success");
+    return ResponseEntity.ok(response);
+  }
+  protected ResponseEntity<?> createPrecheckResponse(FileDB fileDB, UploadPrecheckRequest request) {
+    Map<String, Object> response = new HashMap<>();
+    response.put("filename", request.filename);
+    response.put("skipUpload", fileDB != null);
+    if (fileDB != null) {
+      response.put("id", fileDB.getId());
+      response.put("message", "File already stored - upload skipped");
+    } else {
+      response.put("message", "Content not found - upload required");
+    }
+    response.put("status", "success");
+    return ResponseEntity.ok(response);
+  }
+  protected ResponseEntity<?> createChunkStatusSuccessResponse(List<Integer> missingChunks, int totalChunks, String filename) {
+    Map<String, Object> response = new HashMap<>();
+    response.put("filename", filename);
+    response.put("totalChunks", totalChunks);
+    response.put("receivedChunks", totalChunks - missingChunks.size());
+    response.put("missingChunks", missingChunks);
+    response.put("status", "success");
+    return ResponseEntity.ok(response);
+  }
   protected ResponseEntity<?> createChunkCheckSuccessResponse(boolean exists, int chunkIndex, String filename) {
     Map<String, Object> response = new HashMap<>();
     response.put("exists", exists);
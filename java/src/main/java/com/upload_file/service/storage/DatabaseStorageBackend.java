@@ -0,0 +1,85 @@
+package com.upload_file.service.storage;
+
+import com.upload_file.common.Constants;
+import com.upload_file.entity.FileDB;
+import com.upload_file.exception.FileTooLargeException;
+import com.upload_file.service.FileContentStore;
+import io.micrometer.core.annotation.Timed;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * Tầng DATABASE - nội dung nằm ở bảng file_contents, đọc/ghi qua JDBC stream (FileContentStore)
+ */
+@Component
+public class DatabaseStorageBackend implements StorageBackend {
+
+  private static final Logger logger = LoggerFactory.getLogger(DatabaseStorageBackend.class);
+
+  @Autowired
+  private FileContentStore fileContentStore;
+
+  @Override
+  public Constants.StorageLevel level() {
+    return Constants.StorageLevel.DATABASE;
+  }
+
+  @Override
+  public Set<StorageCapability> capabilities() {
+    return Set.of(StorageCapability.RANGED);
+  }
+
+  @Override
+  @Timed(value = "file.save_to_database", description = "Time taken to save file to database")
+  public void put(@NotNull FileDB fileDB, InputStream content, long size) throws FileTooLargeException {
+    // Tier DATABASE bị chặn bởi MAX_DB_SIZE
+    if (size > Constants.MAX_DB_SIZE) {
+      throw new FileTooLargeException("File too large for database storage: " + size + " bytes");
+    }
+    fileDB.setPath("(db)");
+    // Bind stream thẳng vào INSERT thay vì đặt byte[] lên entity
+    fileDB.setContent(fileContentStore.insert(content, size));
+    logger.debug("File prepared for database storage: {}", fileDB.getName());
+  }
+
+  @Override
+  public InputStream openRange(@NotNull FileDB fileDB, long start, long length) throws FileNotFoundException {
+    return fileContentStore.openRange(contentId(fileDB), start, length);
+  }
+
+  @Override
+  public long stat(@NotNull FileDB fileDB) throws FileNotFoundException {
+    Long length = fileContentStore.getLength(contentId(fileDB));
+    if (length == null) {
+      throw new FileNotFoundException("File data not found: " + fileDB.getName());
+    }
+    return length;
+  }
+
+  @Override
+  public void delete(@NotNull FileDB fileDB) {
+    if (fileDB.getContent() != null) {
+      fileContentStore.delete(fileDB.getContent().getId());
+    }
+  }
+
+  @Override
+  public boolean transactional() {
+    return true;
+  }
+
+  private String contentId(@NotNull FileDB fileDB) throws FileNotFoundException {
+    if (fileDB.getContent() == null) {
+      throw new FileNotFoundException("File data not found: " + fileDB.getName());
+    }
+    // content là proxy lazy - getId() không kích hoạt load blob
+    return fileDB.getContent().getId();
+  }
+}
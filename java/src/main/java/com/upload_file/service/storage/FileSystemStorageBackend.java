@@ -0,0 +1,113 @@
+package com.upload_file.service.storage;
+
+import com.upload_file.common.Constants;
+import com.upload_file.entity.FileDB;
+import com.upload_file.service.MappedSegmentCache;
+import io.micrometer.core.annotation.Timed;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/**
+ * Tầng SYSTEM - file nằm dưới Constants.uploadDir, hỗ trợ sendfile và mmap
+ */
+@Component
+public class FileSystemStorageBackend implements StorageBackend {
+
+  private static final Logger logger = LoggerFactory.getLogger(FileSystemStorageBackend.class);
+
+  @Autowired
+  private MappedSegmentCache mappedSegmentCache;
+
+  @Override
+  public Constants.StorageLevel level() {
+    return Constants.StorageLevel.SYSTEM;
+  }
+
+  @Override
+  public Set<StorageCapability> capabilities() {
+    return Set.of(StorageCapability.RANGED, StorageCapability.ZERO_COPY, StorageCapability.MMAP);
+  }
+
+  @Override
+  @Timed(value = "file.save_to_filesystem", description = "Time taken to save file to filesystem")
+  public void put(@NotNull FileDB fileDB, InputStream content, long size) throws IOException {
+    if (!Files.exists(Constants.uploadDir)) {
+      Files.createDirectories(Constants.uploadDir);
+    }
+
+    Path filePath = generateUniqueFilePath(fileDB.getName());
+    fileDB.setPath(filePath.toString());
+    // Files.copy fail nếu file đã tồn tại (giống CREATE_NEW) và chỉ dùng buffer cố định
+    Files.copy(content, filePath);
+
+    logger.debug("File saved to filesystem: {}", filePath);
+  }
+
+  @Override
+  public InputStream openRange(@NotNull FileDB fileDB, long start, long length) throws IOException {
+    return openLocalRange(localPath(fileDB), start, length);
+  }
+
+  /**
+   * Đọc [start, start + length) của file local - dùng chung cho các backend có bản copy trên disk
+   */
+  static InputStream openLocalRange(Path path, long start, long length) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      channel.position(start);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return new BoundedInputStream(Channels.newInputStream(channel), length);
+  }
+
+  @Override
+  public long stat(@NotNull FileDB fileDB) throws IOException {
+    return Files.size(localPath(fileDB));
+  }
+
+  @Override
+  @Timed(value = "file.delete_from_filesystem", description = "Time taken to delete file from filesystem")
+  public void delete(@NotNull FileDB fileDB) throws IOException {
+    Path path = localPath(fileDB);
+    // Bỏ các segment đã map trước khi xóa file
+    mappedSegmentCache.evict(path);
+    if (Files.deleteIfExists(path)) {
+      logger.info("Deleted file from filesystem: {}", path);
+    } else {
+      logger.warn("File not found on filesystem: {}", path);
+    }
+  }
+
+  @Override
+  public Path localPath(@NotNull FileDB fileDB) {
+    return Paths.get(fileDB.getPath());
+  }
+
+  /**
+   * name_timestamp.ext dưới Constants.uploadDir
+   */
+  private Path generateUniqueFilePath(String filename) {
+    int lastDotIndex = filename.lastIndexOf('.');
+    String nameWithoutExt = lastDotIndex > 0 ? filename.substring(0, lastDotIndex) : filename;
+    String extension = lastDotIndex > 0 ? filename.substring(lastDotIndex) : "";
+    String uniqueFilename = String.format("%s_%s%s", nameWithoutExt, System.currentTimeMillis(), extension);
+
+    return Constants.uploadDir.resolve(uniqueFilename);
+  }
+}
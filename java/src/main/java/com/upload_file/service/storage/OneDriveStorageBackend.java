@@ -0,0 +1,107 @@
+package com.upload_file.service.storage;
+
+import com.upload_file.common.Constants;
+import com.upload_file.dto.OneDriveUploadResult;
+import com.upload_file.entity.FileDB;
+import com.upload_file.service.OneDriveDiskCache;
+import com.upload_file.service.OneDriveService;
+import io.micrometer.core.annotation.Timed;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+
+/**
+ * Tầng ONEDRIVE - upload theo upload session, đọc range qua download URL đã cache hoặc bản copy trong OneDriveDiskCache
+ */
+@Component
+public class OneDriveStorageBackend implements StorageBackend {
+
+  private static final Logger logger = LoggerFactory.getLogger(OneDriveStorageBackend.class);
+
+  @Autowired
+  private OneDriveService oneDriveService;
+
+  @Autowired
+  private OneDriveDiskCache oneDriveDiskCache;
+
+  @Override
+  public Constants.StorageLevel level() {
+    return Constants.StorageLevel.ONEDRIVE;
+  }
+
+  @Override
+  public Set<StorageCapability> capabilities() {
+    return Set.of(StorageCapability.RANGED, StorageCapability.REMOTE);
+  }
+
+  /**
+   * Upload stream lên OneDrive - spool ra file tạm để upload theo slice
+   */
+  @Override
+  public void put(@NotNull FileDB fileDB, InputStream content, long size) throws IOException {
+    Path spoolFile = Files.createTempFile("onedrive-", ".upload");
+    try {
+      Files.copy(content, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+      put(fileDB, spoolFile, size);
+    } finally {
+      Files.deleteIfExists(spoolFile);
+    }
+  }
+
+  @Override
+  @Timed(value = "file.save_to_onedrive", description = "Time taken to save file to OneDrive")
+  public void put(@NotNull FileDB fileDB, Path source, long size) throws IOException {
+    OneDriveUploadResult result = oneDriveService.uploadLargeFile(fileDB.getName(), source);
+    fileDB.setOneDriveId(result.getId());
+    fileDB.setPath(result.getPath());
+
+    logger.debug("File saved to OneDrive: {} (ID: {})", fileDB.getName(), result.getId());
+  }
+
+  @Override
+  public InputStream openRange(@NotNull FileDB fileDB, long start, long length) throws IOException {
+    if (length <= 0) {
+      return InputStream.nullInputStream();
+    }
+    Path cached = oneDriveDiskCache.lookup(fileDB);
+    if (cached != null) {
+      return FileSystemStorageBackend.openLocalRange(cached, start, length);
+    }
+    String rangeHeader = String.format("bytes=%d-%d", start, start + length - 1);
+    return oneDriveService.streamFileWithRange(fileDB.getOneDriveId(), fileDB.getName(), rangeHeader);
+  }
+
+  @Override
+  public long stat(@NotNull FileDB fileDB) throws IOException {
+    return oneDriveService.getFileSize(fileDB.getOneDriveId(), fileDB.getName());
+  }
+
+  /**
+   * Bản copy trong cache disk nếu có - cho phép caller dùng sendfile/mmap với file nóng
+   */
+  @Override
+  public Path localPath(@NotNull FileDB fileDB) {
+    return oneDriveDiskCache.lookup(fileDB);
+  }
+
+  @Override
+  @Timed(value = "file.delete_from_onedrive", description = "Time taken to delete file from OneDrive")
+  public void delete(@NotNull FileDB fileDB) throws IOException {
+    if (fileDB.getOneDriveId() == null) {
+      logger.warn("No OneDrive ID found for file: {}", fileDB.getName());
+      return;
+    }
+    oneDriveDiskCache.invalidate(fileDB.getOneDriveId());
+    oneDriveService.deleteFile(fileDB.getName(), fileDB.getOneDriveId());
+    logger.info("Deleted file from OneDrive: {}", fileDB.getName());
+  }
+}
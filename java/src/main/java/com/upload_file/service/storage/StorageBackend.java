@@ -0,0 +1,77 @@
+package com.upload_file.service.storage;
+
+import com.upload_file.common.Constants;
+import com.upload_file.entity.FileDB;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Một tầng lưu trữ nội dung file. Vị trí nội dung (content / path / oneDriveId) được ghi lên FileDB khi put,
+ * các thao tác còn lại đọc lại từ đó.
+ */
+public interface StorageBackend {
+
+  Constants.StorageLevel level();
+
+  Set<StorageCapability> capabilities();
+
+  default boolean supports(StorageCapability capability) {
+    return capabilities().contains(capability);
+  }
+
+  /**
+   * Ghi nội dung từ stream (đọc đúng size byte)
+   */
+  void put(@NotNull FileDB fileDB, InputStream content, long size) throws IOException;
+
+  /**
+   * Ghi nội dung từ file đã có trên disk - backend nào đọc thẳng được từ file thì override
+   */
+  default void put(@NotNull FileDB fileDB, Path source, long size) throws IOException {
+    try (InputStream content = Files.newInputStream(source)) {
+      put(fileDB, content, size);
+    }
+  }
+
+  /**
+   * Stream chỉ chứa các byte [start, start + length) (ngắn hơn nếu vượt quá cuối file)
+   */
+  InputStream openRange(@NotNull FileDB fileDB, long start, long length) throws IOException;
+
+  default InputStream open(@NotNull FileDB fileDB) throws IOException {
+    return openRange(fileDB, 0, stat(fileDB));
+  }
+
+  default byte[] readAll(@NotNull FileDB fileDB) throws IOException {
+    try (InputStream content = open(fileDB)) {
+      return content.readAllBytes();
+    }
+  }
+
+  /**
+   * Kích thước thực tế của nội dung đã lưu
+   */
+  long stat(@NotNull FileDB fileDB) throws IOException;
+
+  void delete(@NotNull FileDB fileDB) throws IOException;
+
+  /**
+   * true nếu put/delete chạy trong transaction DB hiện tại (rollback cùng metadata).
+   * Backend còn lại (disk, OneDrive) chỉ được xóa sau khi transaction đã commit.
+   */
+  default boolean transactional() {
+    return false;
+  }
+
+  /**
+   * File local cho ZERO_COPY / MMAP, null nếu backend không lưu trên disk
+   */
+  default Path localPath(@NotNull FileDB fileDB) {
+    return null;
+  }
+}
@@ -0,0 +1,59 @@
+package com.upload_file.service.storage;
+
+import com.upload_file.common.Constants;
+import com.upload_file.entity.FileDB;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chọn StorageBackend theo storage level - thay cho các switch DATABASE/SYSTEM/ONEDRIVE rải rác
+ */
+@Component
+public class StorageBackends {
+
+  private final Map<Constants.StorageLevel, StorageBackend> backends = new EnumMap<>(Constants.StorageLevel.class);
+
+  public StorageBackends(List<StorageBackend> backends) {
+    for (StorageBackend backend : backends) {
+      this.backends.put(backend.level(), backend);
+    }
+  }
+
+  public StorageBackend forLevel(Constants.StorageLevel level) {
+    StorageBackend backend = backends.get(level);
+    if (backend == null) {
+      throw new IllegalStateException("No storage backend for level: " + level);
+    }
+    return backend;
+  }
+
+  /**
+   * Backend để lưu file mới có kích thước fileSize
+   */
+  public StorageBackend forSize(long fileSize) {
+    return forLevel(Constants.storageLevelOf(fileSize));
+  }
+
+  /**
+   * Backend đang giữ nội dung của file đã lưu
+   */
+  public StorageBackend forFile(@NotNull FileDB fileDB) throws FileNotFoundException {
+    return forLevel(levelOf(fileDB));
+  }
+
+  public Constants.StorageLevel levelOf(@NotNull FileDB fileDB) throws FileNotFoundException {
+    if (fileDB.getSize() == null) {
+      // Bản ghi cũ không có size - chỉ tầng DATABASE mới thiếu được
+      if (fileDB.getContent() != null) {
+        return Constants.StorageLevel.DATABASE;
+      }
+      throw new FileNotFoundException("File data not found");
+    }
+    return Constants.storageLevelOf(fileDB.getSize());
+  }
+}
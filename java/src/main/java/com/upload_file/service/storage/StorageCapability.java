@@ -0,0 +1,15 @@
+package com.upload_file.service.storage;
+
+/**
+ * Khả năng đọc của một StorageBackend - caller chọn đường đọc tối ưu theo các cờ này
+ */
+public enum StorageCapability {
+  // Đọc đúng [start, start + length) mà không phải đọc phần trước đó
+  RANGED,
+  // Có file local để gửi bằng sendfile / FileChannel.transferTo
+  ZERO_COPY,
+  // Có file local để mmap (MappedSegmentCache)
+  MMAP,
+  // Nội dung nằm ở dịch vụ ngoài - mỗi lần đọc là một request mạng, nên đọc theo segment/cache
+  REMOTE
+}
@@ -0,0 +1,72 @@
+package com.upload_file.common;
+
+import com.upload_file.exception.RangeNotSatisfiableException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ByteRangesTests {
+
+  private static final long SIZE = 1000;
+
+  @Test
+  void noHeaderOrMalformedServesWholeFile() {
+    assertThat(ByteRanges.parse(null, SIZE)).isEmpty();
+    assertThat(ByteRanges.parse("items=0-10", SIZE)).isEmpty();
+    assertThat(ByteRanges.parse("bytes=abc-10", SIZE)).isEmpty();
+    assertThat(ByteRanges.parse("bytes=-", SIZE)).isEmpty();
+  }
+
+  @Test
+  void singleAndOpenEndedRanges() {
+    assertThat(ByteRanges.parse("bytes=0-99", SIZE)).containsExactly(new ByteRanges.Range(0, 99));
+    assertThat(ByteRanges.parse("bytes=900-", SIZE)).containsExactly(new ByteRanges.Range(900, 999));
+    assertThat(ByteRanges.parse(" bytes = 10 - 19 ", SIZE)).containsExactly(new ByteRanges.Range(10, 19));
+  }
+
+  @Test
+  void suffixRangeTakesLastBytes() {
+    assertThat(ByteRanges.parse("bytes=-100", SIZE)).containsExactly(new ByteRanges.Range(900, 999));
+    // Suffix dài hơn file - trả cả file
+    assertThat(ByteRanges.parse("bytes=-5000", SIZE)).containsExactly(new ByteRanges.Range(0, 999));
+  }
+
+  @Test
+  void overlappingAndAdjacentRangesAreCoalesced() {
+    assertThat(ByteRanges.parse("bytes=50-99,0-60,100-109", SIZE))
+        .containsExactly(new ByteRanges.Range(0, 109));
+    assertThat(ByteRanges.parse("bytes=500-599,0-9", SIZE))
+        .containsExactly(new ByteRanges.Range(0, 9), new ByteRanges.Range(500, 599));
+  }
+
+  @Test
+  void startAfterEndIsIgnored() {
+    assertThat(ByteRanges.parse("bytes=500-100", SIZE)).isEmpty();
+  }
+
+  @Test
+  void rangePastEndOfFile() {
+    assertThat(ByteRanges.parse("bytes=900-5000", SIZE)).containsExactly(new ByteRanges.Range(900, 999));
+    // Range nằm ngoài file bị bỏ, range còn lại vẫn được phục vụ
+    assertThat(ByteRanges.parse("bytes=2000-3000,0-9", SIZE)).containsExactly(new ByteRanges.Range(0, 9));
+    assertThatThrownBy(() -> ByteRanges.parse("bytes=1000-2000", SIZE))
+        .isInstanceOf(RangeNotSatisfiableException.class);
+    assertThatThrownBy(() -> ByteRanges.parse("bytes=-10", 0))
+        .isInstanceOf(RangeNotSatisfiableException.class);
+  }
+
+  @Test
+  void tooManyRangesCollapseToOneCoveringRange() {
+    StringBuilder header = new StringBuilder("bytes=");
+    for (int i = 0; i < 40; i++) {
+      header.append(i > 0 ? "," : "").append(i * 10).append('-').append(i * 10 + 1);
+    }
+
+    List<ByteRanges.Range> ranges = ByteRanges.parse(header.toString(), SIZE);
+
+    assertThat(ranges).containsExactly(new ByteRanges.Range(0, 391));
+  }
+}
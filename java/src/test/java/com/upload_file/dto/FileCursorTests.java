@@ -0,0 +1,56 @@
+package com.upload_file.dto;
+
+import com.upload_file.entity.FileDB;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileCursorTests {
+
+  @Test
+  void encodeDecodeRoundTrip() {
+    FileCursor cursor = new FileCursor(1718000000123L, "3f2a6c1e-9b7d-4e1a-8c55-0d2b7e4f9a10");
+
+    String encoded = cursor.encode();
+
+    assertThat(encoded).doesNotContain("=", "+", "/");
+    assertThat(FileCursor.decode(encoded)).isEqualTo(cursor);
+  }
+
+  @Test
+  void negativeTimeSurvivesRoundTrip() {
+    assertThat(FileCursor.decode(FileCursor.START.encode())).isEqualTo(FileCursor.START);
+  }
+
+  @Test
+  void missingCursorStartsFromBeginning() {
+    assertThat(FileCursor.decode(null)).isEqualTo(FileCursor.START);
+    assertThat(FileCursor.decode("  ")).isEqualTo(FileCursor.START);
+  }
+
+  @Test
+  void afterUsesLastRowOfPage() {
+    FileDB fileDB = new FileDB();
+    fileDB.setId("abc");
+    fileDB.setCreationTime(42L);
+
+    assertThat(FileCursor.after(fileDB)).isEqualTo(new FileCursor(42L, "abc"));
+  }
+
+  @Test
+  void malformedCursorIsRejected() {
+    String noSeparator = Base64.getUrlEncoder().encodeToString("12345".getBytes(StandardCharsets.UTF_8));
+    String badTime = Base64.getUrlEncoder().encodeToString("x:abc".getBytes(StandardCharsets.UTF_8));
+
+    assertThatThrownBy(() -> FileCursor.decode("not base64!")).isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Invalid cursor");
+    assertThatThrownBy(() -> FileCursor.decode(noSeparator)).isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Invalid cursor");
+    assertThatThrownBy(() -> FileCursor.decode(badTime)).isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Invalid cursor");
+  }
+}
@@ -0,0 +1,207 @@
+package com.upload_file.service;
+
+import com.upload_file.entity.FileDB;
+import com.upload_file.entity.StorageObject;
+import com.upload_file.repository.FileDBRepository;
+import com.upload_file.repository.StorageObjectRepository;
+import com.upload_file.service.storage.StorageBackend;
+import com.upload_file.service.storage.StorageBackends;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ContentDedupServiceTests {
+
+  private static final String HASH = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+  @Mock
+  private StorageObjectRepository storageObjectRepository;
+
+  @Mock
+  private FileDBRepository fileDBRepository;
+
+  @Mock
+  private FileStorageService fileStorageService;
+
+  @Mock
+  private StorageBackends storageBackends;
+
+  @Mock
+  private StorageBackend backend;
+
+  @InjectMocks
+  private ContentDedupService contentDedupService;
+
+  @AfterEach
+  void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  void hashIsSha256Hex() throws IOException {
+    String hash = contentDedupService.hash(new ByteArrayInputStream("abc".getBytes(StandardCharsets.US_ASCII)));
+
+    assertThat(hash).isEqualTo(HASH);
+  }
+
+  @Test
+  void newContentIsNotAttached() {
+    FileDB upload = file("new", 3L);
+    when(storageObjectRepository.findForUpdate(HASH)).thenReturn(Optional.empty());
+
+    assertThat(contentDedupService.attachExisting(upload, HASH)).isFalse();
+    assertThat(upload.getContentHash()).isEqualTo(HASH);
+  }
+
+  @Test
+  void duplicateSharesStoredContentAndAddsReference() {
+    StorageObject storageObject = storageObject(1);
+    FileDB stored = file("stored", 3L);
+    stored.setPath("D:/videos/a.bin");
+    FileDB upload = file("new", 3L);
+    when(storageObjectRepository.findForUpdate(HASH)).thenReturn(Optional.of(storageObject));
+    when(fileDBRepository.findFirstByContentHash(HASH)).thenReturn(Optional.of(stored));
+
+    assertThat(contentDedupService.attachExisting(upload, HASH)).isTrue();
+    assertThat(upload.getPath()).isEqualTo("D:/videos/a.bin");
+    assertThat(storageObject.getRefCount()).isEqualTo(2);
+  }
+
+  @Test
+  void sizeMismatchIsStoredSeparately() {
+    StorageObject storageObject = storageObject(1);
+    when(storageObjectRepository.findForUpdate(HASH)).thenReturn(Optional.of(storageObject));
+    when(fileDBRepository.findFirstByContentHash(HASH)).thenReturn(Optional.of(file("stored", 4L)));
+
+    assertThat(contentDedupService.attachExisting(file("new", 3L), HASH)).isFalse();
+    assertThat(storageObject.getRefCount()).isEqualTo(1);
+  }
+
+  @Test
+  void instantUploadOnlyReusesOwnersContent() {
+    when(storageObjectRepository.findForUpdate(HASH)).thenReturn(Optional.of(storageObject(1)));
+    when(fileDBRepository.findFirstByContentHashAndUploadedBy(HASH, "bob")).thenReturn(Optional.empty());
+
+    assertThat(contentDedupService.attachExisting(file("new", 3L), HASH, "bob")).isFalse();
+  }
+
+  @Test
+  void lostRegistrationRaceKeepsContentPrivate() {
+    FileDB upload = file("new", 3L);
+    upload.setContentHash(HASH);
+    when(storageObjectRepository.insertIfAbsent(HASH, 3L)).thenReturn(0);
+
+    contentDedupService.register(upload);
+
+    assertThat(upload.getContentHash()).isNull();
+  }
+
+  @Test
+  void releaseDecrementsUntilLastReference() {
+    StorageObject storageObject = storageObject(2);
+    FileDB fileDB = file("a", 3L);
+    fileDB.setContentHash(HASH);
+    when(storageObjectRepository.findForUpdate(HASH)).thenReturn(Optional.of(storageObject));
+
+    assertThat(contentDedupService.release(fileDB)).isFalse();
+    assertThat(storageObject.getRefCount()).isEqualTo(1);
+    verify(storageObjectRepository, never()).delete(any());
+
+    assertThat(contentDedupService.release(fileDB)).isTrue();
+    verify(storageObjectRepository).delete(storageObject);
+  }
+
+  @Test
+  void fileWithoutHashIsAlwaysLastReference() {
+    assertThat(contentDedupService.release(file("legacy", 3L))).isTrue();
+  }
+
+  @Test
+  void sharedContentIsNotDeleted() throws IOException {
+    FileDB fileDB = file("a", 3L);
+    fileDB.setContentHash(HASH);
+    when(storageObjectRepository.findForUpdate(HASH)).thenReturn(Optional.of(storageObject(2)));
+
+    contentDedupService.deleteFile(fileDB);
+
+    verify(fileStorageService).deleteById("a");
+    verify(backend, never()).delete(any());
+  }
+
+  @Test
+  void nonTransactionalContentIsDeletedOnlyAfterCommit() throws IOException {
+    FileDB fileDB = file("a", 3L);
+    when(storageBackends.forFile(fileDB)).thenReturn(backend);
+    when(backend.transactional()).thenReturn(false);
+    TransactionSynchronizationManager.initSynchronization();
+
+    contentDedupService.deleteFile(fileDB);
+
+    verify(fileStorageService).deleteById("a");
+    verify(backend, never()).delete(any());
+
+    TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+    verify(backend).delete(fileDB);
+  }
+
+  @Test
+  void rolledBackDeleteKeepsContent() throws IOException {
+    FileDB fileDB = file("a", 3L);
+    when(storageBackends.forFile(fileDB)).thenReturn(backend);
+    when(backend.transactional()).thenReturn(false);
+    TransactionSynchronizationManager.initSynchronization();
+
+    contentDedupService.deleteFile(fileDB);
+    TransactionSynchronizationManager.getSynchronizations()
+        .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+    verify(backend, never()).delete(any());
+  }
+
+  @Test
+  void databaseContentIsDeletedInsideTransaction() throws IOException {
+    FileDB fileDB = file("a", 3L);
+    when(storageBackends.forFile(fileDB)).thenReturn(backend);
+    when(backend.transactional()).thenReturn(true);
+    TransactionSynchronizationManager.initSynchronization();
+
+    contentDedupService.deleteFile(fileDB);
+
+    verify(backend).delete(fileDB);
+  }
+
+  private static FileDB file(String id, Long size) {
+    FileDB fileDB = new FileDB();
+    fileDB.setId(id);
+    fileDB.setName(id + ".bin");
+    fileDB.setSize(size);
+    return fileDB;
+  }
+
+  private static StorageObject storageObject(long refCount) {
+    StorageObject storageObject = new StorageObject();
+    storageObject.setContentHash(HASH);
+    storageObject.setSize(3L);
+    storageObject.setRefCount(refCount);
+    return storageObject;
+  }
+}
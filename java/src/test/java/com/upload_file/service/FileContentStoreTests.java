@@ -0,0 +1,159 @@
+package com.upload_file.service;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * JdbcTemplate giả lập SUBSTRING(data, pos, len) của MySQL trên một blob trong bộ nhớ
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class FileContentStoreTests {
+
+  private static final String CONTENT_ID = "content-1";
+  private static final int BLOB_SIZE = 600 * 1024;
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private EntityManager entityManager;
+
+  @InjectMocks
+  private FileContentStore fileContentStore;
+
+  private final byte[] blob = new byte[BLOB_SIZE];
+
+  @BeforeEach
+  void setUp() throws SQLException {
+    new Random(42).nextBytes(blob);
+
+    when(jdbcTemplate.query(anyString(), any(ResultSetExtractor.class), any(Object[].class)))
+        .thenAnswer(invocation -> {
+          ResultSetExtractor<?> extractor = invocation.getArgument(1);
+          return extractor.extractData(resultSet(substring(invocation)));
+        });
+    when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class)))
+        .thenAnswer(invocation -> {
+          byte[] row = substring(invocation);
+          if (row == null) {
+            return List.of();
+          }
+          RowMapper<?> rowMapper = invocation.getArgument(1);
+          return List.of(rowMapper.mapRow(resultSet(row), 0));
+        });
+  }
+
+  @Test
+  void copyRangeStreamsSliceChunkByChunk() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    fileContentStore.copyRange(CONTENT_ID, 100, 300_000, out);
+
+    assertThat(out.toByteArray()).isEqualTo(Arrays.copyOfRange(blob, 100, 300_100));
+    // 300_000 byte = 2 chunk 256KB
+    verify(jdbcTemplate, times(2)).query(anyString(), any(ResultSetExtractor.class), any(Object[].class));
+  }
+
+  @Test
+  void copyRangeStopsAtEndOfBlob() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    fileContentStore.copyRange(CONTENT_ID, BLOB_SIZE - 10, 1000, out);
+
+    assertThat(out.toByteArray()).isEqualTo(Arrays.copyOfRange(blob, BLOB_SIZE - 10, BLOB_SIZE));
+  }
+
+  @Test
+  void copyRangeOfMissingContentWritesNothing() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    fileContentStore.copyRange("missing", 0, 1000, out);
+
+    assertThat(out.size()).isZero();
+  }
+
+  @Test
+  void openRangeReadsLazilyAcrossChunks() throws IOException {
+    try (InputStream in = fileContentStore.openRange(CONTENT_ID, 1, BLOB_SIZE - 2)) {
+      assertThat(in.read()).isEqualTo(blob[1] & 0xff);
+      verify(jdbcTemplate, times(1)).query(anyString(), any(RowMapper.class), any(Object[].class));
+
+      byte[] rest = in.readAllBytes();
+      assertThat(rest).isEqualTo(Arrays.copyOfRange(blob, 2, BLOB_SIZE - 1));
+      assertThat(in.read()).isEqualTo(-1);
+    }
+    verify(jdbcTemplate, times(3)).query(anyString(), any(RowMapper.class), any(Object[].class));
+  }
+
+  @Test
+  void openRangeEndsEarlyWhenBlobIsShorter() throws IOException {
+    try (InputStream in = fileContentStore.openRange(CONTENT_ID, BLOB_SIZE - 5, 100)) {
+      assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(blob, BLOB_SIZE - 5, BLOB_SIZE));
+    }
+  }
+
+  @Test
+  void lengthOfMissingContentIsNull() {
+    when(jdbcTemplate.queryForList(anyString(), eq(Long.class), eq("missing"))).thenReturn(List.of());
+    when(jdbcTemplate.queryForList(anyString(), eq(Long.class), eq(CONTENT_ID))).thenReturn(List.of((long) BLOB_SIZE));
+
+    assertThat(fileContentStore.getLength("missing")).isNull();
+    assertThat(fileContentStore.getLength(CONTENT_ID)).isEqualTo(BLOB_SIZE);
+  }
+
+  /**
+   * SUBSTRING(data, ?, ?) ... WHERE id = ? - null nếu không có dòng nào
+   */
+  private byte[] substring(InvocationOnMock invocation) {
+    long position = invocation.getArgument(2);
+    int count = invocation.getArgument(3);
+    String contentId = invocation.getArgument(4);
+    if (!CONTENT_ID.equals(contentId)) {
+      return null;
+    }
+    int from = (int) Math.min(position - 1, blob.length);
+    int to = (int) Math.min((long) from + count, blob.length);
+    return Arrays.copyOfRange(blob, from, to);
+  }
+
+  private static ResultSet resultSet(byte[] row) throws SQLException {
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.next()).thenReturn(row != null, false);
+    if (row != null) {
+      when(resultSet.getBytes(1)).thenReturn(row);
+      when(resultSet.getBinaryStream(1)).thenReturn(new ByteArrayInputStream(row));
+    }
+    return resultSet;
+  }
+}
@@ -0,0 +1,145 @@
+package com.upload_file.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedSegmentCacheTests {
+
+  private static final int MB = 1024 * 1024;
+
+  @TempDir
+  Path tempDir;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private Path file;
+  private byte[] content;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    // 2.5 segment 1MB
+    content = new byte[2 * MB + MB / 2];
+    new Random(7).nextBytes(content);
+    file = Files.write(tempDir.resolve("video.mp4"), content);
+  }
+
+  @Test
+  void rangeAcrossSegmentsIsCopiedExactly() throws IOException {
+    MappedSegmentCache cache = new MappedSegmentCache(meterRegistry, "true", 1, 16);
+
+    byte[] range = transfer(cache, MB - 10, MB + 20);
+
+    assertThat(range).isEqualTo(Arrays.copyOfRange(content, MB - 10, 2 * MB + 10));
+    assertThat(segments()).isEqualTo(2);
+  }
+
+  @Test
+  void rangePastEndOfFileIsTruncated() throws IOException {
+    MappedSegmentCache cache = new MappedSegmentCache(meterRegistry, "true", 1, 16);
+
+    byte[] range = transfer(cache, 2 * MB, MB);
+
+    assertThat(range).isEqualTo(Arrays.copyOfRange(content, 2 * MB, content.length));
+  }
+
+  @Test
+  void repeatedRangesReuseMappedSegments() throws IOException {
+    MappedSegmentCache cache = new MappedSegmentCache(meterRegistry, "true", 1, 16);
+
+    transfer(cache, 0, content.length);
+    transfer(cache, 100, 1000);
+
+    assertThat(gets("miss")).isEqualTo(3);
+    assertThat(gets("hit")).isEqualTo(1);
+  }
+
+  @Test
+  void modifiedFileIsMappedAgain() throws IOException {
+    MappedSegmentCache cache = new MappedSegmentCache(meterRegistry, "true", 1, 16);
+    transfer(cache, 0, 10);
+
+    content[0] = (byte) (content[0] + 1);
+    Files.write(file, content);
+    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+
+    assertThat(transfer(cache, 0, 10)).isEqualTo(Arrays.copyOfRange(content, 0, 10));
+    assertThat(gets("miss")).isEqualTo(2);
+  }
+
+  @Test
+  void evictDropsSegmentsOfFile() throws IOException {
+    MappedSegmentCache cache = new MappedSegmentCache(meterRegistry, "true", 1, 16);
+    transfer(cache, 0, content.length);
+
+    cache.evict(file);
+
+    assertThat(segments()).isZero();
+  }
+
+  @Test
+  void disabledCacheStreamsWithoutMapping() throws IOException {
+    MappedSegmentCache cache = new MappedSegmentCache(meterRegistry, "false", 1, 16);
+
+    byte[] range = transfer(cache, MB - 10, MB + 20);
+
+    assertThat(range).isEqualTo(Arrays.copyOfRange(content, MB - 10, 2 * MB + 10));
+    assertThat(segments()).isZero();
+    assertThat(gets("miss")).isZero();
+  }
+
+  private byte[] transfer(MappedSegmentCache cache, long start, long length) throws IOException {
+    ByteArrayServletOutputStream out = new ByteArrayServletOutputStream();
+    cache.transfer(file, start, length, out);
+    return out.toByteArray();
+  }
+
+  private double segments() {
+    return meterRegistry.get("cache.size").tag("cache", "file.mmap.segments").gauge().value();
+  }
+
+  private double gets(String result) {
+    return meterRegistry.get("cache.gets").tag("cache", "file.mmap.segments").tag("result", result)
+        .functionCounter().count();
+  }
+
+  private static class ByteArrayServletOutputStream extends ServletOutputStream {
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    @Override
+    public void write(int b) {
+      buffer.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      buffer.write(b, off, len);
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+    }
+
+    byte[] toByteArray() {
+      return buffer.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.upload_file.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OneDriveTokenManagerTests {
+
+  private static final MediaType JSON = MediaType.get("application/json");
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicInteger fetches = new AtomicInteger();
+
+  // Giây còn lại của token mà token endpoint giả trả về
+  private volatile long expiresIn = 3600;
+  private volatile int status = 200;
+  private volatile CountDownLatch release = new CountDownLatch(0);
+
+  @Test
+  void tokenIsFetchedOnceAndReused() throws IOException {
+    OneDriveTokenManager tokenManager = tokenManager(new SyncTaskExecutor());
+
+    assertThat(tokenManager.getAccessToken()).isEqualTo("token-1");
+    assertThat(tokenManager.getAccessToken()).isEqualTo("token-1");
+
+    assertThat(fetches).hasValue(1);
+    assertThat(requests("hit")).isEqualTo(1);
+    assertThat(requests("miss")).isEqualTo(1);
+  }
+
+  @Test
+  void invalidateForcesNewToken() throws IOException {
+    OneDriveTokenManager tokenManager = tokenManager(new SyncTaskExecutor());
+    tokenManager.getAccessToken();
+
+    tokenManager.invalidate();
+
+    assertThat(tokenManager.getAccessToken()).isEqualTo("token-2");
+    assertThat(fetches).hasValue(2);
+  }
+
+  @Test
+  void tokenNearExpiryIsServedWhileRefreshingInBackground() throws IOException {
+    expiresIn = 120;
+    OneDriveTokenManager tokenManager = tokenManager(new SyncTaskExecutor());
+    tokenManager.getAccessToken();
+    expiresIn = 3600;
+
+    // Vẫn trả token cũ, bản mới được lấy trên executor
+    assertThat(tokenManager.getAccessToken()).isEqualTo("token-1");
+    assertThat(fetches).hasValue(2);
+    assertThat(tokenManager.getAccessToken()).isEqualTo("token-2");
+  }
+
+  @Test
+  void backgroundRefreshIsSkippedWhenExecutorIsFull() throws IOException {
+    expiresIn = 120;
+    TaskExecutor rejecting = task -> {
+      throw new TaskRejectedException("busy");
+    };
+    OneDriveTokenManager tokenManager = tokenManager(rejecting);
+    tokenManager.getAccessToken();
+
+    assertThat(tokenManager.getAccessToken()).isEqualTo("token-1");
+    assertThat(fetches).hasValue(1);
+  }
+
+  @Test
+  void concurrentMissesShareOneFetch() throws Exception {
+    int callers = 8;
+    release = new CountDownLatch(1);
+    OneDriveTokenManager tokenManager = tokenManager(new SyncTaskExecutor());
+    ExecutorService pool = Executors.newFixedThreadPool(callers);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < callers; i++) {
+        results.add(pool.submit(tokenManager::getAccessToken));
+      }
+      // Chờ mọi caller đều miss cache rồi mới cho token endpoint trả về
+      long deadline = System.currentTimeMillis() + 5_000;
+      while (requests("miss") < callers && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      Thread.sleep(50);
+      release.countDown();
+
+      for (Future<String> result : results) {
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("token-1");
+      }
+      assertThat(fetches).hasValue(1);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  void failedFetchIsReportedAndRetriedOnNextCall() throws IOException {
+    status = 500;
+    OneDriveTokenManager tokenManager = tokenManager(new SyncTaskExecutor());
+
+    assertThatThrownBy(tokenManager::getAccessToken)
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("500");
+
+    status = 200;
+    assertThat(tokenManager.getAccessToken()).isEqualTo("token-2");
+  }
+
+  private OneDriveTokenManager tokenManager(TaskExecutor executor) {
+    OkHttpClient httpClient = new OkHttpClient.Builder()
+        .addInterceptor(this::tokenEndpoint)
+        .build();
+    OneDriveTokenManager tokenManager = new OneDriveTokenManager(meterRegistry, executor, httpClient);
+    ReflectionTestUtils.setField(tokenManager, "clientId", "client");
+    ReflectionTestUtils.setField(tokenManager, "clientSecret", "secret");
+    ReflectionTestUtils.setField(tokenManager, "tenantId", "tenant");
+    return tokenManager;
+  }
+
+  private Response tokenEndpoint(Interceptor.Chain chain) throws IOException {
+    try {
+      release.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+    int n = fetches.incrementAndGet();
+    String body = status == 200
+        ? "{\"access_token\":\"token-" + n + "\",\"expires_in\":" + expiresIn + "}"
+        : "{\"error\":\"invalid_client\"}";
+    return new Response.Builder()
+        .request(chain.request())
+        .protocol(Protocol.HTTP_1_1)
+        .code(status)
+        .message(status == 200 ? "OK" : "Error")
+        .body(ResponseBody.create(body, JSON))
+        .build();
+  }
+
+  private double requests(String result) {
+    return meterRegistry.get("onedrive.token.requests").tag("result", result).counter().count();
+  }
+}
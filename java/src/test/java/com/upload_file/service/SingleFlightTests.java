@@ -0,0 +1,162 @@
+package com.upload_file.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class SingleFlightTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final SingleFlight singleFlight = new SingleFlight(meterRegistry);
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void followerSharesLeaderResult() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+
+    Future<String> leader = executor.submit(() -> singleFlight.execute(SingleFlight.Operation.BLOB_FETCH, "a", () -> {
+      calls.incrementAndGet();
+      started.countDown();
+      await(release);
+      return "data";
+    }));
+    await(started);
+    Future<String> follower = startFollower("a", calls);
+    awaitCoalesced(1);
+    release.countDown();
+
+    assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("data");
+    assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("data");
+    assertThat(calls).hasValue(1);
+  }
+
+  @Test
+  void followerReceivesLeaderIOException() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    IOException failure = new IOException("backend down");
+
+    Future<String> leader = executor.submit(() -> singleFlight.execute(SingleFlight.Operation.BLOB_FETCH, "a", () -> {
+      calls.incrementAndGet();
+      started.countDown();
+      await(release);
+      throw failure;
+    }));
+    await(started);
+    Future<String> follower = startFollower("a", calls);
+    awaitCoalesced(1);
+    release.countDown();
+
+    assertThat(catchThrowable(() -> leader.get(5, TimeUnit.SECONDS))).hasCause(failure);
+    assertThat(catchThrowable(() -> follower.get(5, TimeUnit.SECONDS))).hasCause(failure);
+    assertThat(calls).hasValue(1);
+  }
+
+  @Test
+  void followerReceivesLeaderRuntimeException() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    IllegalStateException failure = new IllegalStateException("boom");
+
+    Future<String> leader = executor.submit(() -> singleFlight.execute(SingleFlight.Operation.CONVERSION, "a", () -> {
+      calls.incrementAndGet();
+      started.countDown();
+      await(release);
+      throw failure;
+    }));
+    await(started);
+    Future<String> follower = executor.submit(() -> singleFlight.execute(SingleFlight.Operation.CONVERSION, "a", () -> {
+      calls.incrementAndGet();
+      return "follower ran";
+    }));
+    awaitCoalesced(1);
+    release.countDown();
+
+    assertThat(catchThrowable(() -> leader.get(5, TimeUnit.SECONDS))).hasCause(failure);
+    assertThat(catchThrowable(() -> follower.get(5, TimeUnit.SECONDS))).hasCause(failure);
+    assertThat(calls).hasValue(1);
+  }
+
+  @Test
+  void failureIsNotCached() throws Exception {
+    assertThatThrownBy(() -> singleFlight.execute(SingleFlight.Operation.REMOTE_FETCH, "a", () -> {
+      throw new IOException("first attempt");
+    })).isInstanceOf(IOException.class);
+
+    assertThat(singleFlight.execute(SingleFlight.Operation.REMOTE_FETCH, "a", () -> "second attempt"))
+        .isEqualTo("second attempt");
+  }
+
+  @Test
+  void differentOperationsWithSameKeyDoNotCoalesce() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<String> fetch = executor.submit(() -> singleFlight.execute(SingleFlight.Operation.BLOB_FETCH, "a", () -> {
+      started.countDown();
+      await(release);
+      return "blob";
+    }));
+    await(started);
+
+    assertThat(singleFlight.execute(SingleFlight.Operation.CONVERSION, "a", () -> "pdf")).isEqualTo("pdf");
+    release.countDown();
+    assertThat(fetch.get(5, TimeUnit.SECONDS)).isEqualTo("blob");
+    assertThat(meterRegistry.find("single.flight.coalesced").counter()).isNull();
+  }
+
+  private Future<String> startFollower(String key, AtomicInteger calls) {
+    return executor.submit(() -> singleFlight.execute(SingleFlight.Operation.BLOB_FETCH, key, () -> {
+      calls.incrementAndGet();
+      return "follower ran";
+    }));
+  }
+
+  /**
+   * Chờ tới khi follower đã nhận future của leader (counter coalesced tăng)
+   */
+  private void awaitCoalesced(int expected) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (System.nanoTime() < deadline) {
+      double count = meterRegistry.find("single.flight.coalesced").counters().stream()
+          .mapToDouble(counter -> counter.count()).sum();
+      if (count >= expected) {
+        return;
+      }
+      Thread.sleep(5);
+    }
+    throw new AssertionError("Follower did not join the in-flight call");
+  }
+
+  private static void await(CountDownLatch latch) throws IOException {
+    try {
+      if (!latch.await(5, TimeUnit.SECONDS)) {
+        throw new IOException("Test latch timed out");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+}
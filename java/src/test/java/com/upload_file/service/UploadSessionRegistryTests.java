@@ -0,0 +1,155 @@
+package com.upload_file.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UploadSessionRegistryTests {
+
+  private static final String USER = "alice";
+
+  @TempDir
+  Path root;
+
+  private final List<UploadSessionRegistry> registries = new ArrayList<>();
+
+  @AfterEach
+  void tearDown() {
+    registries.forEach(UploadSessionRegistry::close);
+  }
+
+  @Test
+  void receivedChunksSurviveRestart() throws IOException {
+    UploadSessionRegistry registry = start(1024);
+    UploadSession session = registry.register(newSession(registry, 4));
+    registry.markReceived(session, 0);
+    registry.markReceived(session, 2);
+    registry.close();
+
+    UploadSession restored = start(1024).get(session.getUploadId(), USER);
+
+    assertThat(restored).isNotNull();
+    assertThat(restored.getFilename()).isEqualTo("clip one.mp4");
+    assertThat(restored.receivedChunks()).containsExactly(0, 2);
+    assertThat(restored.missingChunks()).containsExactly(1, 3);
+  }
+
+  @Test
+  void sessionOfAnotherUserIsNotReturned() throws IOException {
+    UploadSessionRegistry registry = start(1024);
+    UploadSession session = registry.register(newSession(registry, 1));
+
+    assertThat(registry.get(session.getUploadId(), "mallory")).isNull();
+  }
+
+  @Test
+  void sessionWithoutDirectoryIsDroppedOnReplay() throws IOException {
+    UploadSessionRegistry registry = start(1024);
+    UploadSession session = registry.register(newSession(registry, 2));
+    registry.close();
+    Files.delete(session.getDirectory());
+
+    assertThat(start(1024).get(session.getUploadId(), USER)).isNull();
+  }
+
+  @Test
+  void completingLastSessionEmptiesJournal() throws IOException {
+    UploadSessionRegistry registry = start(1024);
+    UploadSession session = registry.register(newSession(registry, 2));
+    registry.markReceived(session, 0);
+
+    registry.complete(session);
+
+    // Removal listener chạy bất đồng bộ
+    awaitTrue(() -> journalLines().isEmpty());
+    registry.close();
+    assertThat(start(1024).get(session.getUploadId(), USER)).isNull();
+  }
+
+  @Test
+  void journalIsCompactedPastSizeLimit() throws IOException {
+    UploadSessionRegistry registry = start(1);
+    UploadSession finished = registry.register(newSession(registry, 2));
+    UploadSession active = registry.register(newSession(registry, 200));
+    registry.complete(finished);
+    awaitTrue(() -> journalLines().stream().anyMatch(line -> line.startsWith("D\t" + finished.getUploadId())));
+
+    for (int i = 0; i < 200; i++) {
+      registry.markReceived(active, i);
+    }
+
+    // Sau compact: không còn dòng nào của session đã xong, session còn sống chỉ có một dòng C
+    List<String> lines = journalLines();
+    assertThat(lines).noneMatch(line -> line.contains(finished.getUploadId()));
+    assertThat(lines).filteredOn(line -> line.startsWith("C\t")).hasSize(1);
+
+    registry.close();
+    UploadSession restored = start(1).get(active.getUploadId(), USER);
+    assertThat(restored.firstMissingChunk()).isEqualTo(-1);
+  }
+
+  @Test
+  void rejectsUploadIdsAndUsernamesOutsideChunksRoot() throws IOException {
+    UploadSessionRegistry registry = start(1024);
+
+    assertThat(UploadSessionRegistry.isValidUploadId("../../etc")).isFalse();
+    assertThat(UploadSessionRegistry.isValidUploadId(UUID.randomUUID().toString().toUpperCase())).isFalse();
+    assertThatThrownBy(() -> registry.sessionDirectory(USER, "../x"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> registry.sessionDirectory("..", UUID.randomUUID().toString()))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> registry.sessionDirectory("a/b", UUID.randomUUID().toString()))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private UploadSessionRegistry start(long journalMaxKb) throws IOException {
+    UploadSessionRegistry registry = new UploadSessionRegistry(root, 24, journalMaxKb);
+    registry.init();
+    registries.add(registry);
+    return registry;
+  }
+
+  private UploadSession newSession(UploadSessionRegistry registry, int totalChunks) throws IOException {
+    String uploadId = UUID.randomUUID().toString();
+    Path dir = registry.sessionDirectory(USER, uploadId);
+    Files.createDirectories(dir);
+    return new UploadSession(uploadId, USER, "clip one.mp4", "video/mp4", -1, -1, totalChunks, null, dir, null,
+        System.currentTimeMillis());
+  }
+
+  private List<String> journalLines() {
+    try {
+      return Files.readAllLines(root.resolve("upload-sessions.journal"), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void awaitTrue(BooleanSupplier condition) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("Condition not met within 5s");
+      }
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.upload_file.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UploadSessionTests {
+
+  private static final Path DIR = Path.of("chunks", "user", "id");
+
+  @Test
+  void tracksReceivedAndMissingChunks() {
+    UploadSession session = legacySession(4);
+
+    session.markReceived(0);
+    session.markReceived(2);
+
+    assertThat(session.isReceived(2)).isTrue();
+    assertThat(session.isReceived(1)).isFalse();
+    assertThat(session.receivedChunks()).containsExactly(0, 2);
+    assertThat(session.missingChunks()).containsExactly(1, 3);
+    assertThat(session.firstMissingChunk()).isEqualTo(1);
+  }
+
+  @Test
+  void firstMissingChunkIsNegativeWhenComplete() {
+    UploadSession session = legacySession(3);
+    for (int i = 0; i < 3; i++) {
+      session.markReceived(i);
+    }
+
+    assertThat(session.firstMissingChunk()).isEqualTo(-1);
+    assertThat(session.missingChunks()).isEmpty();
+  }
+
+  @Test
+  void legacySessionGrowsButNeverShrinks() {
+    UploadSession session = legacySession(2);
+
+    session.expandTo(5);
+    session.expandTo(3);
+
+    assertThat(session.getTotalChunks()).isEqualTo(5);
+    assertThat(session.missingChunks()).containsExactly(0, 1, 2, 3, 4);
+  }
+
+  @Test
+  void preallocatedSessionKeepsDeclaredLayout() {
+    UploadSession session = new UploadSession("id", "user", "movie.mp4", "video/mp4", 10_000, 4096, 3,
+        null, DIR, DIR.resolve("upload.part"), System.currentTimeMillis());
+
+    session.expandTo(100);
+
+    assertThat(session.isPreallocated()).isTrue();
+    assertThat(session.getTotalChunks()).isEqualTo(3);
+  }
+
+  @Test
+  void restoreActivityKeepsLatestTimestamp() {
+    UploadSession session = new UploadSession("id", "user", "a.bin", null, -1, -1, 1, null, DIR, null, 1000);
+
+    session.restoreActivity(3000);
+    session.restoreActivity(2000);
+
+    assertThat(session.getLastActivity()).isEqualTo(3000);
+  }
+
+  private static UploadSession legacySession(int totalChunks) {
+    return new UploadSession("id", "user", "a.bin", null, -1, -1, totalChunks, null, DIR, null,
+        System.currentTimeMillis());
+  }
+}